@@ -74,6 +74,10 @@ public class AlarmForwarder implements AlarmLifecycleListener {
     public void handleDeletedAlarm(int alarmId, String reductionKey) {
     }
 
+    public QueueStats getQueueStats() {
+        return alarmSender.getQueueStats();
+    }
+
     public void destroy() {
         LOG.info("destroy: resetting alarm snapshot flag for next startup");
         starting.set(true);
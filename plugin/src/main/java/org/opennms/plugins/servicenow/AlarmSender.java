@@ -2,64 +2,284 @@ package org.opennms.plugins.servicenow;
 
 import org.opennms.integration.api.v1.model.Alarm;
 import org.opennms.integration.api.v1.model.Node;
+import org.opennms.plugins.servicenow.AlarmSpool.SpooledAlert;
 import org.opennms.plugins.servicenow.client.ApiClientProvider;
 import org.opennms.plugins.servicenow.client.ApiException;
-import org.opennms.plugins.servicenow.client.ClientManager;
 import org.opennms.plugins.servicenow.connection.ConnectionManager;
 import org.opennms.plugins.servicenow.model.Alert;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ExecutionException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 public class AlarmSender {
     private static final Logger LOG = LoggerFactory.getLogger(AlarmSender.class);
 
-    private record AlarmNode(Alarm alarm, Node node, String parent) {
-    }
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
 
     private final ConnectionManager connectionManager;
     private final ApiClientProvider apiClientProvider;
     private final PluginEventForwarder eventForwarder;
+    private final AlarmSpool spool;
     private final int maxRetry;
     private final long retryDelay;
     private final long timeoutMs;
+    private final int window;
+    private final int batchSize;
+    private final long batchLingerMs;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
 
-    private final LinkedBlockingQueue<AlarmNode> queue = new LinkedBlockingQueue<>();
+    // Pending alarms keyed by reduction key: a newer update replaces the one still waiting to be sent
+    private final CoalescingQueue<String, SpooledAlert> queue = new CoalescingQueue<>();
+    // Serializes the admission of alerts, so that the queue never holds more than capacity reduction keys
+    private final Object admission = new Object();
+    // Alerts kept in the spool alone while the queue is full: sequence number by reduction key, oldest first
+    private final LinkedHashMap<String, Long> spilled = new LinkedHashMap<>();
+    // Alerts whose send failed, waiting retryDelay before going back to the queue, by reduction key
+    private final Map<String, SpooledAlert> retrying = new HashMap<>();
+    // Reduction keys whose last down alert was dropped or failed, so ServiceNow does not know the alarm
+    private final Set<String> missingDowns = ConcurrentHashMap.newKeySet();
+    private final AtomicLong dropped = new AtomicLong();
+    // Bounds the number of alarms being sent
+    private final Semaphore inFlightPermits;
+    // Last dispatched send per reduction key, used to chain sends so that updates of the same alarm stay in order
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    private final Set<SendScope> sending = ConcurrentHashMap.newKeySet();
     private volatile boolean running = false;
     private ExecutorService queueThread;
-    private final ExecutorService sendThread = Executors.newSingleThreadExecutor(r -> new Thread(r, "alarm-forwarder-send"));
 
     public AlarmSender(ConnectionManager connectionManager,
                        ApiClientProvider apiClientProvider,
                        PluginEventForwarder eventForwarder,
+                       AlarmSpool spool,
+                       int maxRetry,
+                       long retryDelay,
+                       long timeoutMs,
+                       int window,
+                       int batchSize,
+                       long batchLingerMs) {
+        this(connectionManager, apiClientProvider, eventForwarder, spool, maxRetry, retryDelay, timeoutMs, window,
+                batchSize, batchLingerMs, Integer.MAX_VALUE, OverflowPolicy.DROP_OLDEST_NON_CRITICAL.toString());
+    }
+
+    public AlarmSender(ConnectionManager connectionManager,
+                       ApiClientProvider apiClientProvider,
+                       PluginEventForwarder eventForwarder,
+                       AlarmSpool spool,
                        int maxRetry,
                        long retryDelay,
-                       long timeoutMs) {
+                       long timeoutMs,
+                       int window,
+                       int batchSize,
+                       long batchLingerMs,
+                       int capacity,
+                       String overflowPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("alarm.queue.capacity must be at least 1: " + capacity);
+        }
         this.connectionManager = connectionManager;
         this.apiClientProvider = apiClientProvider;
         this.eventForwarder = eventForwarder;
+        this.spool = spool;
         this.maxRetry = maxRetry;
         this.retryDelay = retryDelay;
         this.timeoutMs = timeoutMs;
+        this.window = Math.max(1, window);
+        this.batchSize = Math.min(Math.max(1, batchSize), this.window);
+        this.batchLingerMs = batchLingerMs;
+        this.inFlightPermits = new Semaphore(this.window);
+        this.capacity = capacity;
+        this.overflowPolicy = OverflowPolicy.parse(overflowPolicy);
     }
 
     public void enqueue(Alarm alarm, Node node, String parent) {
         LOG.debug("enqueue: alarm: {}", alarm);
-        queue.offer(new AlarmNode(alarm, node, parent));
+        Alert alert = AlarmForwarder.toAlert(alarm, parent);
+        LOG.debug("enqueue: converted to {}", alert);
+        long seq = spool.append(node.getId(), alarm.getReductionKey(), alert);
+        admit(new SpooledAlert(seq, node.getId(), alarm.getReductionKey(), alert));
+    }
+
+    public QueueStats getQueueStats() {
+        synchronized (admission) {
+            return new QueueStats("alarm", queue.size(), capacity, overflowPolicy, dropped.get(), spilled.size());
+        }
+    }
+
+    /**
+     * Queues the alert, applying the overflow policy when the queue is full.
+     * An update of a reduction key already queued replaces the queued one and never overflows.
+     */
+    private void admit(SpooledAlert spooled) {
+        if (overflowPolicy == OverflowPolicy.BLOCK && !queue.containsKey(spooled.reductionKey())) {
+            // waits outside the admission lock, so that the queue thread can still refill from the spool
+            awaitRoom();
+        }
+        synchronized (admission) {
+            Long spilledSeq = spilled.remove(spooled.reductionKey());
+            if (spilledSeq != null) {
+                spool.ack(spooled.reductionKey(), spilledSeq);
+            }
+            SpooledAlert failed = retrying.remove(spooled.reductionKey());
+            if (failed != null) {
+                giveUp(failed);
+            }
+            if (queue.containsKey(spooled.reductionKey()) || queue.size() + retrying.size() < capacity) {
+                offer(spooled);
+                return;
+            }
+            switch (overflowPolicy) {
+                case BLOCK -> drop(spooled, "alarm queue full for " + timeoutMs + "ms");
+                case SPILL_TO_DISK -> spill(spooled);
+                case DROP_CLEARS_FOR_MISSING_DOWNS -> dropClearsForMissingDowns(spooled);
+                case DROP_OLDEST_NON_CRITICAL -> dropOldestNonCritical(spooled);
+            }
+        }
+    }
+
+    private void awaitRoom() {
+        try {
+            queue.awaitSizeBelow(capacity, timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void offer(SpooledAlert spooled) {
+        SpooledAlert replaced = queue.offer(spooled.reductionKey(), spooled);
+        if (replaced != null) {
+            LOG.debug("enqueue: replaced queued update for reduction key: {}", spooled.reductionKey());
+            spool.ack(replaced.reductionKey(), replaced.seq());
+        }
+    }
+
+    private void spill(SpooledAlert spooled) {
+        if (spooled.seq() <= 0) {
+            // the spool is disabled: there is nowhere to keep the alert
+            dropOldestNonCritical(spooled);
+            return;
+        }
+        LOG.debug("spill: alarm queue full, keeping alert for reduction key: {} in the spool", spooled.reductionKey());
+        spilled.put(spooled.reductionKey(), spooled.seq());
+    }
+
+    private void dropClearsForMissingDowns(SpooledAlert spooled) {
+        SpooledAlert victim = queue.removeFirst(this::isClearForMissingDown);
+        if (victim != null) {
+            drop(victim, "alarm queue full, clear of an alarm never forwarded");
+            offer(spooled);
+        } else if (isClearForMissingDown(spooled)) {
+            drop(spooled, "alarm queue full, clear of an alarm never forwarded");
+        } else {
+            dropOldestNonCritical(spooled);
+        }
+    }
+
+    private void dropOldestNonCritical(SpooledAlert spooled) {
+        SpooledAlert victim = queue.removeFirst(queued -> !isCritical(queued.alert()));
+        if (victim == null && !isCritical(spooled.alert())) {
+            drop(spooled, "alarm queue full, non critical alert");
+            return;
+        }
+        if (victim == null) {
+            // only critical alerts are queued: the oldest raise goes, a queued clear never does
+            victim = queue.removeFirst(queued -> queued.alert().getStatus() != Alert.Status.UP);
+        }
+        if (victim == null) {
+            // only clears are queued: the queue stays bounded
+            drop(spooled, "alarm queue full of clears");
+            return;
+        }
+        drop(victim, "alarm queue full");
+        offer(spooled);
+    }
+
+    private void drop(SpooledAlert spooled, String message) {
+        dropped.incrementAndGet();
+        if (spooled.alert().getStatus() == Alert.Status.DOWN) {
+            missingDowns.add(spooled.reductionKey());
+        } else {
+            missingDowns.remove(spooled.reductionKey());
+        }
+        spool.ack(spooled.reductionKey(), spooled.seq());
+        LOG.warn("drop: {} (capacity={}, policy={}), dropping alert for reduction key: {}",
+                message, capacity, overflowPolicy, spooled.reductionKey());
+        eventForwarder.sendAlarmDropped(spooled.nodeId(), spooled.reductionKey(), message);
+    }
+
+    /**
+     * Alerts raising a major or critical alarm and clears are critical: dropping a clear would leave
+     * the incident open in ServiceNow.
+     */
+    private static boolean isCritical(Alert alert) {
+        return alert.getStatus() == Alert.Status.UP
+                || alert.getSeverity() == Alert.Severity.MAJOR
+                || alert.getSeverity() == Alert.Severity.CRITICAL;
+    }
+
+    private boolean isClearForMissingDown(SpooledAlert spooled) {
+        return spooled.alert().getStatus() == Alert.Status.UP && missingDowns.contains(spooled.reductionKey());
+    }
+
+    /**
+     * Moves spilled alerts back from the spool into the queue once it is half empty.
+     */
+    private void refill() {
+        synchronized (admission) {
+            int room = capacity - queue.size() - retrying.size();
+            if (spilled.isEmpty() || room < Math.max(1, capacity / 2)) {
+                return;
+            }
+            final List<Long> seqs = new ArrayList<>(Math.min(room, spilled.size()));
+            final Iterator<Long> it = spilled.values().iterator();
+            while (it.hasNext() && seqs.size() < room) {
+                seqs.add(it.next());
+                it.remove();
+            }
+            final List<SpooledAlert> alerts = spool.read(new HashSet<>(seqs));
+            alerts.forEach(this::offer);
+            LOG.info("refill: queued {} spilled alerts, {} left in the spool", alerts.size(), spilled.size());
+        }
     }
 
     public void start() {
         running = true;
+        synchronized (admission) {
+            for (SpooledAlert spooled : spool.open()) {
+                if (queue.containsKey(spooled.reductionKey()) || queue.size() + retrying.size() < capacity) {
+                    offer(spooled);
+                } else {
+                    // already in the spool: queued once there is room, whatever the overflow policy
+                    spilled.put(spooled.reductionKey(), spooled.seq());
+                }
+            }
+            if (queue.size() > 0) {
+                LOG.info("start: recovered {} alerts from the spool, {} left in the spool", queue.size(), spilled.size());
+            }
+        }
         queueThread = Executors.newSingleThreadExecutor(r -> new Thread(r, "alarm-forwarder-queue"));
         queueThread.submit(this::processQueue);
-        LOG.info("start: alarm sender started (timeoutMs={})", timeoutMs);
+        LOG.info("start: alarm sender started (timeoutMs={}, window={}, batchSize={}, batchLingerMs={}, capacity={}, overflowPolicy={})",
+                timeoutMs, window, batchSize, batchLingerMs, capacity, overflowPolicy);
     }
 
     public void stop() {
@@ -67,28 +287,22 @@ public class AlarmSender {
         if (queueThread != null) {
             queueThread.shutdownNow();
         }
-        sendThread.shutdownNow();
+        // aborts the HTTP calls still in flight; their alerts stay in the spool
+        sending.forEach(SendScope::cancel);
+        spool.close();
         LOG.info("stop: alarm sender stopped");
     }
 
     private void processQueue() {
         while (running) {
             try {
-                AlarmNode alarmNode = queue.poll(1, TimeUnit.SECONDS);
-                if (alarmNode == null) {
+                refill();
+                List<SpooledAlert> batch = nextBatch();
+                if (batch.isEmpty()) {
                     continue;
                 }
-                Future<?> future = sendThread.submit(() -> sendAlarm(alarmNode, 0));
-                try {
-                    future.get(timeoutMs, TimeUnit.MILLISECONDS);
-                } catch (TimeoutException e) {
-                    future.cancel(true);
-                    LOG.warn("processQueue: send timed out after {}ms for reduction key: {}", timeoutMs, alarmNode.alarm().getReductionKey());
-                    eventForwarder.sendAlarmFailed(alarmNode.node().getId(), alarmNode.alarm().getReductionKey(), e.getMessage());
-                } catch (ExecutionException e) {
-                    LOG.error("processQueue: send failed for reduction key: {}", alarmNode.alarm().getReductionKey(), e.getCause());
-                    eventForwarder.sendAlarmFailed(alarmNode.node().getId(), alarmNode.alarm().getReductionKey(), e.getMessage());
-                }
+                inFlightPermits.acquire(batch.size());
+                dispatch(batch);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
@@ -96,35 +310,306 @@ public class AlarmSender {
         }
     }
 
-    private void sendAlarm(AlarmNode alarmNode, int retry) {
-        Alarm alarm = alarmNode.alarm();
-        if (maxRetry == retry) {
-            LOG.warn("sendAlarm: skipping alarm with reduction key {}, too many retry {}", alarm.getReductionKey(), retry);
+    /**
+     * Takes up to {@code batchSize} alerts from the queue, waiting at most {@code batchLingerMs}
+     * after the first one for the batch to fill up.
+     */
+    private List<SpooledAlert> nextBatch() throws InterruptedException {
+        final List<SpooledAlert> batch = new ArrayList<>(batchSize);
+        SpooledAlert spooled = queue.poll(1, TimeUnit.SECONDS);
+        if (spooled == null) {
+            return batch;
         }
-        retry++;
-        LOG.debug("sendAlarm: processing alarm with reduction key: {}, retry: {}", alarm.getReductionKey(), retry);
-        Alert alert = AlarmForwarder.toAlert(alarmNode.alarm(), alarmNode.parent());
-        LOG.debug("sendAlarm: converted to {}", alert);
+        batch.add(spooled);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchLingerMs);
+        while (batch.size() < batchSize) {
+            spooled = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (spooled == null) {
+                break;
+            }
+            batch.add(spooled);
+        }
+        return batch;
+    }
 
-        try {
-            apiClientProvider.send(
-                    alert,
-                    ClientManager.asApiClientCredentials(connectionManager.getConnection().orElseThrow()));
-            eventForwarder.sendAlarmSuccessful(alarm.getNode().getId(), alarm.getReductionKey());
-            LOG.info("sendAlarm: forwarded: id={} asset={}, node={}, parent={}", alert.getId(), alert.getAsset(), alert.getNode(), alert.getParentalNodeLabel());
-        } catch (ApiException e) {
-            eventForwarder.sendAlarmFailed(alarm.getNode().getId(), alarm.getReductionKey(), e.getMessage());
-            LOG.error("sendAlarm: failed to send: alarm {}, message: {}, body: {}",
-                    alarm.getReductionKey(),
-                    e.getMessage(),
-                    e.getResponseBody(), e);
-            try {
-                Thread.sleep(retryDelay * retry);
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
-                return;
+    private void dispatch(List<SpooledAlert> batch) {
+        final Set<String> reductionKeys = new LinkedHashSet<>();
+        batch.forEach(spooled -> reductionKeys.add(spooled.reductionKey()));
+        final CompletableFuture<?>[] previous = reductionKeys.stream()
+                .map(reductionKey -> inFlight.getOrDefault(reductionKey, DONE))
+                .filter(future -> !future.isDone())
+                .toArray(CompletableFuture[]::new);
+        if (previous.length > 0) {
+            LOG.debug("dispatch: {} reduction keys have a send in flight, chaining", previous.length);
+        }
+        final Map<SpooledAlert, String> rejected = new ConcurrentHashMap<>();
+        final Map<SpooledAlert, Throwable> failed = new ConcurrentHashMap<>();
+        final CompletableFuture<Void> current = CompletableFuture.allOf(previous)
+                .handle((v, t) -> null)
+                .thenCompose(v -> sendBatch(batch, rejected, failed));
+        reductionKeys.forEach(reductionKey -> inFlight.put(reductionKey, current));
+        current.whenComplete((v, t) -> {
+            reductionKeys.forEach(reductionKey -> inFlight.remove(reductionKey, current));
+            inFlightPermits.release(batch.size());
+            if (t == null) {
+                batch.forEach(spooled -> {
+                    String message = rejected.get(spooled);
+                    if (message != null) {
+                        onRejected(spooled, message);
+                        return;
+                    }
+                    Throwable failure = failed.get(spooled);
+                    if (failure != null) {
+                        onSendFailure(List.of(spooled), failure);
+                        return;
+                    }
+                    missingDowns.remove(spooled.reductionKey());
+                    spool.ack(spooled.reductionKey(), spooled.seq());
+                });
+            } else {
+                onSendFailure(batch, t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+            }
+        });
+    }
+
+    /**
+     * Puts the failed alerts back into the queue after {@code retryDelay}, up to {@code maxRetry} times each,
+     * unless a newer update of the same alarm is already queued, spilled or being sent.
+     * Otherwise the failed alert is acknowledged and recorded as failed, with a single failure event.
+     * Alerts failed by {@link #stop()} stay in the spool and are queued again at the next start.
+     */
+    private void onSendFailure(List<SpooledAlert> batch, Throwable cause) {
+        for (SpooledAlert spooled : batch) {
+            final String reductionKey = spooled.reductionKey();
+            if (cause instanceof TimeoutException) {
+                LOG.warn("processQueue: send timed out after {}ms for reduction key: {}", timeoutMs, reductionKey);
+            } else {
+                LOG.error("processQueue: send failed for reduction key: {}", reductionKey, cause);
             }
-            sendAlarm(alarmNode, retry);
+            final SpooledAlert failed = spooled.failed();
+            synchronized (admission) {
+                if (!running) {
+                    continue;
+                }
+                if (queue.containsKey(reductionKey) || spilled.containsKey(reductionKey) || inFlight.containsKey(reductionKey)) {
+                    LOG.debug("processQueue: newer update pending for reduction key: {}, not retrying", reductionKey);
+                    giveUp(spooled);
+                } else if (failed.failures() > maxRetry) {
+                    LOG.warn("processQueue: giving up alert for reduction key: {} after {} failed sends", reductionKey, failed.failures());
+                    giveUp(spooled);
+                } else {
+                    SpooledAlert older = retrying.put(reductionKey, failed);
+                    if (older != null) {
+                        giveUp(older);
+                    }
+                    CompletableFuture.delayedExecutor(retryDelay, TimeUnit.MILLISECONDS).execute(() -> requeue(failed));
+                    continue;
+                }
+            }
+            eventForwarder.sendAlarmFailed(spooled.nodeId(), reductionKey, cause.getMessage());
+        }
+    }
+
+    // ServiceNow refused the alert itself: sending it again cannot succeed
+    private void onRejected(SpooledAlert spooled, String message) {
+        LOG.error("processQueue: alert rejected for reduction key: {}, message: {}", spooled.reductionKey(), message);
+        eventForwarder.sendAlarmFailed(spooled.nodeId(), spooled.reductionKey(), message);
+        synchronized (admission) {
+            giveUp(spooled);
         }
     }
-}
\ No newline at end of file
+
+    private void requeue(SpooledAlert spooled) {
+        synchronized (admission) {
+            if (running && retrying.remove(spooled.reductionKey(), spooled)) {
+                LOG.debug("requeue: retrying alert for reduction key: {}", spooled.reductionKey());
+                offer(spooled);
+            }
+        }
+    }
+
+    // the alert will not be sent: ServiceNow misses it unless a newer update of the alarm gets through
+    private void giveUp(SpooledAlert spooled) {
+        if (spooled.alert().getStatus() == Alert.Status.DOWN) {
+            missingDowns.add(spooled.reductionKey());
+        }
+        spool.ack(spooled.reductionKey(), spooled.seq());
+    }
+
+    /**
+     * Sends the batch as a single request. When ServiceNow {@link ApiException#isRejected() rejects} the request
+     * the batch is split in halves, which are sent one after the other, until the rejected alerts are isolated
+     * and added to {@code rejected} with the reason.
+     * When the request fails otherwise, such as a script error answered with a {@code 5xx}, both halves are sent
+     * on their own: if both fail too the whole batch fails, so an outage costs a few requests per batch and not one
+     * per alert; else the failing half is split the same way until the alerts that fail alone are isolated and
+     * added to {@code failed} with their failure, so they do not hold their batchmates back.
+     * Once part of the batch is sent, a later part that fails is added to {@code failed} and not the whole batch.
+     * The whole send, retries included, fails with a {@link TimeoutException} after {@code timeoutMs}.
+     */
+    private CompletableFuture<Void> sendBatch(List<SpooledAlert> batch, Map<SpooledAlert, String> rejected,
+                                              Map<SpooledAlert, Throwable> failed) {
+        final SendScope scope = SendScope.start(s -> splitSend(batch, rejected, failed, s), timeoutMs);
+        sending.add(scope);
+        scope.result.whenComplete((v, t) -> sending.remove(scope));
+        return scope.result;
+    }
+
+    private CompletableFuture<Void> splitSend(List<SpooledAlert> batch, Map<SpooledAlert, String> rejected,
+                                              Map<SpooledAlert, Throwable> failed, SendScope scope) {
+        if (batch.size() == 1) {
+            return sendAlarm(batch.get(0), scope)
+                    .handle((v, t) -> {
+                        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                        if (cause == null) {
+                            return DONE;
+                        }
+                        if (isRejected(cause) && !scope.isDone()) {
+                            rejected.put(batch.get(0), cause.getMessage() + " " + ((ApiException) cause).getResponseBody());
+                            return DONE;
+                        }
+                        return CompletableFuture.<Void>failedFuture(cause);
+                    })
+                    .thenCompose(f -> f);
+        }
+        LOG.debug("sendBatch: processing batch of {} alerts", batch.size());
+        return sendOnce(batch, scope)
+                .handle((v, t) -> {
+                    if (t == null) {
+                        return DONE;
+                    }
+                    Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                    if (scope.isDone()) {
+                        return CompletableFuture.<Void>failedFuture(cause);
+                    }
+                    if (!isRejected(cause)) {
+                        LOG.warn("sendBatch: batch of {} alerts failed, sending its halves, message: {}", batch.size(), cause.getMessage());
+                        return isolate(batch, rejected, failed, scope);
+                    }
+                    LOG.warn("sendBatch: batch of {} alerts rejected, splitting, message: {}, body: {}",
+                            batch.size(),
+                            cause.getMessage(),
+                            ((ApiException) cause).getResponseBody());
+                    return splitRejected(batch, rejected, failed, scope);
+                })
+                .thenCompose(f -> f);
+    }
+
+    private CompletableFuture<Void> splitRejected(List<SpooledAlert> batch, Map<SpooledAlert, String> rejected,
+                                                  Map<SpooledAlert, Throwable> failed, SendScope scope) {
+        final int half = batch.size() / 2;
+        final List<SpooledAlert> first = batch.subList(0, half);
+        final List<SpooledAlert> second = batch.subList(half, batch.size());
+        return failAlone(first, splitSend(first, rejected, failed, scope), failed, scope)
+                .thenCompose(x -> failAlone(second, splitSend(second, rejected, failed, scope), failed, scope));
+    }
+
+    /**
+     * Sends the halves of a batch that failed without being rejected, one after the other.
+     * Fails when both fail without being rejected.
+     */
+    private CompletableFuture<Void> isolate(List<SpooledAlert> batch, Map<SpooledAlert, String> rejected,
+                                            Map<SpooledAlert, Throwable> failed, SendScope scope) {
+        final int half = batch.size() / 2;
+        final List<SpooledAlert> first = batch.subList(0, half);
+        final List<SpooledAlert> second = batch.subList(half, batch.size());
+        return failureOf(sendOnce(first, scope))
+                .thenCompose(firstFailure -> failureOf(sendOnce(second, scope))
+                        .thenCompose(secondFailure -> {
+                            if (firstFailure != null && secondFailure != null
+                                    && !isRejected(firstFailure) && !isRejected(secondFailure)) {
+                                return CompletableFuture.<Void>failedFuture(secondFailure);
+                            }
+                            return onHalfFailure(first, firstFailure, rejected, failed, scope)
+                                    .thenCompose(x -> onHalfFailure(second, secondFailure, rejected, failed, scope));
+                        }));
+    }
+
+    // the other half of the batch got through: the failure is the half's own
+    private CompletableFuture<Void> onHalfFailure(List<SpooledAlert> half, Throwable cause, Map<SpooledAlert, String> rejected,
+                                                  Map<SpooledAlert, Throwable> failed, SendScope scope) {
+        if (cause == null) {
+            return DONE;
+        }
+        if (scope.isDone()) {
+            return CompletableFuture.failedFuture(cause);
+        }
+        if (isRejected(cause) && half.size() == 1) {
+            rejected.put(half.get(0), cause.getMessage() + " " + ((ApiException) cause).getResponseBody());
+            return DONE;
+        }
+        if (isRejected(cause)) {
+            return splitRejected(half, rejected, failed, scope);
+        }
+        if (half.size() == 1) {
+            LOG.warn("sendBatch: alert for reduction key: {} failed alone, message: {}", half.get(0).reductionKey(), cause.getMessage());
+            failed.put(half.get(0), cause);
+            return DONE;
+        }
+        return failAlone(half, isolate(half, rejected, failed, scope), failed, scope);
+    }
+
+    // a part of the batch failing does not fail the other parts, which may already be sent
+    private static CompletableFuture<Void> failAlone(List<SpooledAlert> part, CompletableFuture<Void> send,
+                                                     Map<SpooledAlert, Throwable> failed, SendScope scope) {
+        return send.handle((v, t) -> {
+                    Throwable failure = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                    if (failure == null) {
+                        return DONE;
+                    }
+                    if (scope.isDone()) {
+                        return CompletableFuture.<Void>failedFuture(failure);
+                    }
+                    part.forEach(spooled -> failed.putIfAbsent(spooled, failure));
+                    return DONE;
+                })
+                .thenCompose(f -> f);
+    }
+
+    // sends the alerts in one request, without retrying
+    private CompletableFuture<Void> sendOnce(List<SpooledAlert> alerts, SendScope scope) {
+        return scope.track(() -> alerts.size() == 1
+                        ? apiClientProvider.sendAsync(alerts.get(0).alert(), connectionManager.getCredentials().orElseThrow(), timeoutMs)
+                        : apiClientProvider.sendAsync(
+                                alerts.stream().map(SpooledAlert::alert).collect(Collectors.toList()),
+                                connectionManager.getCredentials().orElseThrow(),
+                                timeoutMs))
+                .thenRun(() -> {
+                    for (SpooledAlert spooled : alerts) {
+                        eventForwarder.sendAlarmSuccessful(spooled.nodeId(), spooled.reductionKey());
+                    }
+                    LOG.info("sendBatch: forwarded: {} alerts", alerts.size());
+                });
+    }
+
+    // completes with the failure of the send, null when it succeeded
+    private static CompletableFuture<Throwable> failureOf(CompletableFuture<Void> send) {
+        return send.handle((v, t) -> t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+    }
+
+    private static boolean isRejected(Throwable cause) {
+        return cause instanceof ApiException && ((ApiException) cause).isRejected();
+    }
+
+    private CompletableFuture<Void> sendAlarm(SpooledAlert spooled, SendScope scope) {
+        Alert alert = spooled.alert();
+        LOG.debug("sendAlarm: processing alarm with reduction key: {}", spooled.reductionKey());
+        return scope.track(RetryingSend.<Void>send(
+                () -> apiClientProvider.sendAsync(
+                        alert,
+                        connectionManager.getCredentials().orElseThrow(),
+                        timeoutMs),
+                (retry, e) -> LOG.error("sendAlarm: failed to send: alarm {}, attempt {} of {}, message: {}, body: {}",
+                        spooled.reductionKey(),
+                        retry,
+                        maxRetry,
+                        e.getMessage(),
+                        e.getResponseBody(), e),
+                maxRetry,
+                retryDelay))
+                .thenRun(() -> {
+                    eventForwarder.sendAlarmSuccessful(spooled.nodeId(), spooled.reductionKey());
+                    LOG.info("sendAlarm: forwarded: id={} asset={}, node={}, parent={}", alert.getId(), alert.getAsset(), alert.getNode(), alert.getParentalNodeLabel());
+                });
+    }
+}
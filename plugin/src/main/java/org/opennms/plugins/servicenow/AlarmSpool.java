@@ -0,0 +1,434 @@
+package org.opennms.plugins.servicenow;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.opennms.plugins.servicenow.model.Alert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Append-only on-disk spool of the alerts waiting to be forwarded.
+ * <p>
+ * Every queued alert is appended to the active segment file as one JSON line and an acknowledgement line
+ * is appended once it has been delivered (or superseded by a newer update of the same alarm).
+ * Writes only reach the page cache; a background thread forces the active segment to disk every
+ * {@code syncIntervalMs}, so many appends share one fsync (group commit).
+ * Segments roll over at {@code segmentSize} bytes and are deleted, oldest first, once every alert they hold
+ * has been acknowledged. At a roll over, when the oldest segment keeps later ones on disk, the alerts still
+ * pending in it are copied with their sequence numbers into the new one, so a few long pending alerts do not
+ * keep every later segment on disk.
+ * On {@link #open()} the segments are replayed and the pending alerts are compacted into a fresh segment.
+ */
+public class AlarmSpool {
+    private static final Logger LOG = LoggerFactory.getLogger(AlarmSpool.class);
+
+    private static final String SEGMENT_INFIX = "-alarm-spool-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * @param failures the number of failed sends of the alert since it was queued, not spooled
+     */
+    public record SpooledAlert(long seq, int nodeId, String reductionKey, Alert alert, int failures) {
+        public SpooledAlert(long seq, int nodeId, String reductionKey, Alert alert) {
+            this(seq, nodeId, reductionKey, alert, 0);
+        }
+
+        public SpooledAlert failed() {
+            return new SpooledAlert(seq, nodeId, reductionKey, alert, failures + 1);
+        }
+    }
+
+    private record Pending(long segment, String reductionKey) {
+    }
+
+    private final Path directory;
+    private final String segmentPrefix;
+    private final boolean enabled;
+    private final long segmentSize;
+    private final long syncIntervalMs;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<Long, Pending> pending = new HashMap<>();
+    private final Map<String, NavigableSet<Long>> pendingByReductionKey = new HashMap<>();
+    // live segments, oldest first, with the number of alerts not yet acknowledged
+    private final TreeMap<Long, Integer> pendingBySegment = new TreeMap<>();
+    private long nextSeq = 1;
+    private long segmentId = 0;
+    private FileChannel channel;
+    private long channelSize;
+    private volatile boolean dirty = false;
+    private boolean compacting = false;
+    private ScheduledExecutorService syncThread;
+
+    public AlarmSpool(String filePrefix, boolean enabled, long segmentSize, long syncIntervalMs) {
+        Path prefix = Paths.get(filePrefix).toAbsolutePath();
+        this.directory = prefix.getParent();
+        this.segmentPrefix = prefix.getFileName() + SEGMENT_INFIX;
+        this.enabled = enabled;
+        this.segmentSize = segmentSize;
+        this.syncIntervalMs = syncIntervalMs;
+    }
+
+    /**
+     * Replays the spool and starts the group commit thread.
+     *
+     * @return the alerts that were spooled but never acknowledged, oldest first
+     */
+    public synchronized List<SpooledAlert> open() {
+        if (!enabled) {
+            LOG.info("open: alarm spool disabled");
+            return List.of();
+        }
+        final List<Path> segments = listSegments();
+        final TreeMap<Long, SpooledAlert> records = new TreeMap<>();
+        for (Path segment : segments) {
+            replay(segment, records);
+            segmentId = Math.max(segmentId, segmentIdOf(segment));
+        }
+        LOG.info("open: replayed {} segments, {} alerts pending", segments.size(), records.size());
+        try {
+            roll();
+            for (SpooledAlert record : records.values()) {
+                write(toRecord(record));
+                track(record.seq(), record.reductionKey());
+            }
+            channel.force(false);
+            for (Path segment : segments) {
+                Files.deleteIfExists(segment);
+                pendingBySegment.remove(segmentIdOf(segment));
+            }
+        } catch (IOException e) {
+            LOG.error("open: failed to compact spool into {}", segmentPath(segmentId), e);
+        }
+        syncThread = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "alarm-forwarder-spool-sync"));
+        syncThread.scheduleWithFixedDelay(this::sync, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+        return new ArrayList<>(records.values());
+    }
+
+    public synchronized void close() {
+        if (syncThread != null) {
+            syncThread.shutdownNow();
+            syncThread = null;
+        }
+        if (channel != null) {
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                LOG.error("close: failed to close spool segment {}", segmentPath(segmentId), e);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Spools an alert.
+     *
+     * @return the sequence number to acknowledge the alert with, or 0 when the spool is not open
+     */
+    public synchronized long append(int nodeId, String reductionKey, Alert alert) {
+        if (channel == null) {
+            return 0;
+        }
+        long seq = nextSeq++;
+        try {
+            write(toRecord(new SpooledAlert(seq, nodeId, reductionKey, alert)));
+            track(seq, reductionKey);
+        } catch (IOException e) {
+            LOG.error("append: failed to spool alert for reduction key: {}", reductionKey, e);
+        }
+        return seq;
+    }
+
+    /**
+     * Acknowledges the alert with the given sequence number together with any older alert
+     * still pending for the same reduction key, which the acknowledged one supersedes.
+     */
+    public synchronized void ack(String reductionKey, long seq) {
+        if (channel == null || seq <= 0) {
+            return;
+        }
+        NavigableSet<Long> seqs = pendingByReductionKey.get(reductionKey);
+        if (seqs == null) {
+            return;
+        }
+        for (Long acked : new ArrayList<>(seqs.headSet(seq, true))) {
+            try {
+                write(mapper.createObjectNode().put("ack", acked));
+            } catch (IOException e) {
+                LOG.error("ack: failed to acknowledge spooled alert {} for reduction key: {}", acked, reductionKey, e);
+                return;
+            }
+            untrack(acked);
+        }
+        deleteAcknowledgedSegments();
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Reads back alerts still pending, such as the ones spilled out of the send queue.
+     * Only the segments holding the requested alerts are read.
+     *
+     * @return the pending alerts among the given sequence numbers, oldest first
+     */
+    public synchronized List<SpooledAlert> read(Collection<Long> seqs) {
+        final TreeSet<Long> segments = new TreeSet<>();
+        for (Long seq : seqs) {
+            Pending p = pending.get(seq);
+            if (p != null) {
+                segments.add(p.segment());
+            }
+        }
+        final TreeMap<Long, SpooledAlert> records = new TreeMap<>();
+        for (Long segment : segments) {
+            readPending(segment, seqs::contains, records);
+        }
+        return new ArrayList<>(records.values());
+    }
+
+    // reads the alerts of the segment that are still pending and wanted
+    private void readPending(long segment, Predicate<Long> wanted, Map<Long, SpooledAlert> records) {
+        try (BufferedReader reader = Files.newBufferedReader(segmentPath(segment), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    JsonNode node = mapper.readTree(line);
+                    // acknowledgements have no seq
+                    long seq = node.path("seq").asLong();
+                    if (pending.containsKey(seq) && wanted.test(seq)) {
+                        records.put(seq, toSpooledAlert(node));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    LOG.warn("read: skipping unreadable record in {}: {}", segmentPath(segment), e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("read: failed to read spool segment {}", segmentPath(segment), e);
+        }
+    }
+
+    private void sync() {
+        if (!dirty) {
+            return;
+        }
+        FileChannel current;
+        synchronized (this) {
+            current = channel;
+            dirty = false;
+        }
+        if (current == null) {
+            return;
+        }
+        try {
+            current.force(false);
+        } catch (ClosedChannelException e) {
+            // rolled over meanwhile, the segment was forced before closing
+        } catch (IOException e) {
+            LOG.error("sync: failed to sync spool segment", e);
+        }
+    }
+
+    private void track(long seq, String reductionKey) {
+        pending.put(seq, new Pending(segmentId, reductionKey));
+        pendingByReductionKey.computeIfAbsent(reductionKey, k -> new TreeSet<>()).add(seq);
+        pendingBySegment.merge(segmentId, 1, Integer::sum);
+    }
+
+    private void untrack(long seq) {
+        Pending p = pending.remove(seq);
+        if (p == null) {
+            return;
+        }
+        NavigableSet<Long> seqs = pendingByReductionKey.get(p.reductionKey());
+        seqs.remove(seq);
+        if (seqs.isEmpty()) {
+            pendingByReductionKey.remove(p.reductionKey());
+        }
+        pendingBySegment.computeIfPresent(p.segment(), (k, v) -> v - 1);
+    }
+
+    // Acknowledgements are always written to the same or a newer segment than the alert they refer to,
+    // so only a prefix of fully acknowledged segments can be deleted without resurrecting alerts on replay.
+    private void deleteAcknowledgedSegments() {
+        Iterator<Map.Entry<Long, Integer>> it = pendingBySegment.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Integer> entry = it.next();
+            if (entry.getKey() == segmentId || entry.getValue() > 0) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(segmentPath(entry.getKey()));
+                LOG.debug("deleteAcknowledgedSegments: deleted {}", segmentPath(entry.getKey()));
+            } catch (IOException e) {
+                LOG.warn("deleteAcknowledgedSegments: failed to delete {}", segmentPath(entry.getKey()), e);
+                return;
+            }
+            it.remove();
+        }
+    }
+
+    private void write(ObjectNode record) throws IOException {
+        if (channelSize >= segmentSize) {
+            roll();
+            compactOldestSegment();
+        }
+        byte[] json = mapper.writeValueAsBytes(record);
+        ByteBuffer buffer = ByteBuffer.allocate(json.length + 1).put(json).put((byte) '\n');
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channelSize += channel.write(buffer);
+        }
+        dirty = true;
+    }
+
+    private void roll() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+        }
+        segmentId++;
+        Path path = segmentPath(segmentId);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        channelSize = channel.size();
+        pendingBySegment.putIfAbsent(segmentId, 0);
+        deleteAcknowledgedSegments();
+        LOG.debug("roll: writing to {}", path);
+    }
+
+    /**
+     * Copies the alerts still pending in the oldest segment to the active one, when it keeps a later closed
+     * segment on disk. Replay keeps one alert per sequence number, so a copy left behind by a crash before
+     * the old segment is deleted is harmless. At most one segment is copied per roll over, which bounds
+     * the extra writes to the size of the new data.
+     */
+    private void compactOldestSegment() throws IOException {
+        if (compacting || pendingBySegment.size() <= 2) {
+            return;
+        }
+        final Map.Entry<Long, Integer> oldest = pendingBySegment.firstEntry();
+        if (oldest.getValue() == 0) {
+            return;
+        }
+        final long segment = oldest.getKey();
+        final TreeMap<Long, SpooledAlert> records = new TreeMap<>();
+        readPending(segment, seq -> pending.get(seq).segment() == segment, records);
+        compacting = true;
+        try {
+            for (SpooledAlert record : records.values()) {
+                write(toRecord(record));
+                untrack(record.seq());
+                track(record.seq(), record.reductionKey());
+            }
+        } finally {
+            compacting = false;
+        }
+        channel.force(false);
+        LOG.debug("compactOldestSegment: copied {} pending alerts out of {}", records.size(), segmentPath(segment));
+        deleteAcknowledgedSegments();
+    }
+
+    private ObjectNode toRecord(SpooledAlert record) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("seq", record.seq());
+        node.put("nodeId", record.nodeId());
+        node.put("reductionKey", record.reductionKey());
+        node.set("alert", mapper.valueToTree(record.alert()));
+        return node;
+    }
+
+    private SpooledAlert toSpooledAlert(JsonNode node) throws IOException {
+        return new SpooledAlert(
+                node.get("seq").asLong(),
+                node.get("nodeId").asInt(),
+                node.get("reductionKey").asText(),
+                mapper.treeToValue(node.get("alert"), Alert.class));
+    }
+
+    private void replay(Path segment, TreeMap<Long, SpooledAlert> records) {
+        try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    JsonNode node = mapper.readTree(line);
+                    if (node.has("ack")) {
+                        long seq = node.get("ack").asLong();
+                        records.remove(seq);
+                        nextSeq = Math.max(nextSeq, seq + 1);
+                        continue;
+                    }
+                    SpooledAlert record = toSpooledAlert(node);
+                    records.put(record.seq(), record);
+                    nextSeq = Math.max(nextSeq, record.seq() + 1);
+                } catch (IOException | RuntimeException e) {
+                    // a torn write at the end of the segment after a crash
+                    LOG.warn("replay: skipping unreadable record in {}: {}", segment, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("replay: failed to read spool segment {}", segment, e);
+        }
+    }
+
+    private List<Path> listSegments() {
+        final List<Path> segments = new ArrayList<>();
+        if (directory == null || !Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, segmentPrefix + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        } catch (IOException e) {
+            LOG.error("listSegments: failed to list spool segments in {}", directory, e);
+        }
+        segments.removeIf(p -> segmentIdOf(p) < 0);
+        segments.sort((a, b) -> Long.compare(segmentIdOf(a), segmentIdOf(b)));
+        return segments;
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%s%010d%s", segmentPrefix, id, SEGMENT_SUFFIX));
+    }
+
+    private long segmentIdOf(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(segmentPrefix.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package org.opennms.plugins.servicenow;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent string map backing the asset caches.
+ * <p>
+ * The map is stored as a {@code .properties} snapshot plus an append-only change log ({@code <file>.log})
+ * holding one JSON line per put or remove, so a change writes a single line instead of the whole file.
+ * Once the log holds more entries than the map, the map is compacted into a new snapshot written to a
+ * temporary file and atomically renamed over the old one, after which the log is truncated.
+ * Replaying the log over the snapshot is idempotent, so a crash at any point leaves a loadable store.
+ */
+public class AssetCacheStore {
+    private static final Logger LOG = LoggerFactory.getLogger(AssetCacheStore.class);
+
+    private static final int MIN_COMPACTION_ENTRIES = 1024;
+
+    private final Path snapshotFile;
+    private final Path logFile;
+    private final Path tempFile;
+    private final Map<String, String> map = new ConcurrentHashMap<>();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private BufferedWriter log;
+    private int logEntries = 0;
+
+    public AssetCacheStore(String file) {
+        this.snapshotFile = Paths.get(file);
+        this.logFile = Paths.get(file + ".log");
+        this.tempFile = Paths.get(file + ".tmp");
+    }
+
+    /**
+     * Loads the snapshot and replays the change log over it.
+     */
+    public synchronized void load() {
+        map.clear();
+        if (Files.exists(snapshotFile)) {
+            Properties props = new Properties();
+            try (InputStream in = Files.newInputStream(snapshotFile)) {
+                props.load(in);
+                props.forEach((k, v) -> map.put((String) k, (String) v));
+            } catch (IOException e) {
+                LOG.warn("load: failed to read cache file {}, starting fresh", snapshotFile, e);
+            }
+        } else {
+            LOG.info("load: cache file not found, starting fresh: {}", snapshotFile);
+        }
+        int replayed = replay();
+        LOG.info("load: loaded {} entries from {} ({} changes replayed)", map.size(), snapshotFile, replayed);
+        if (replayed > 0) {
+            compact();
+        }
+    }
+
+    public String get(String key) {
+        return map.get(key);
+    }
+
+    public boolean containsKey(String key) {
+        return map.containsKey(key);
+    }
+
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(map.keySet());
+    }
+
+    public Map<String, String> asMap() {
+        return Collections.unmodifiableMap(map);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public synchronized void put(String key, String value) {
+        if (value.equals(map.put(key, value))) {
+            return;
+        }
+        append(mapper.createObjectNode().put("k", key).put("v", value));
+    }
+
+    public synchronized void remove(String key) {
+        if (map.remove(key) == null) {
+            return;
+        }
+        append(mapper.createObjectNode().put("k", key).put("d", true));
+    }
+
+    /**
+     * Empties the store and deletes its files.
+     */
+    public synchronized void clear() {
+        map.clear();
+        closeLog();
+        logEntries = 0;
+        for (Path file : new Path[]{snapshotFile, logFile, tempFile}) {
+            try {
+                if (Files.deleteIfExists(file)) {
+                    LOG.info("clear: deleted {}", file);
+                }
+            } catch (IOException e) {
+                LOG.error("clear: failed to delete {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * Compacts pending changes into the snapshot and closes the change log.
+     */
+    public synchronized void close() {
+        if (logEntries > 0) {
+            compact();
+        }
+        closeLog();
+    }
+
+    private void append(ObjectNode change) {
+        try {
+            if (log == null) {
+                log = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            log.write(mapper.writeValueAsString(change));
+            log.newLine();
+            log.flush();
+            logEntries++;
+        } catch (IOException e) {
+            LOG.error("append: failed to write cache log {}", logFile, e);
+        }
+        if (logEntries > Math.max(MIN_COMPACTION_ENTRIES, map.size())) {
+            compact();
+        }
+    }
+
+    private int replay() {
+        if (!Files.exists(logFile)) {
+            return 0;
+        }
+        int replayed = 0;
+        try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    JsonNode change = mapper.readTree(line);
+                    String key = change.get("k").asText();
+                    if (change.has("d")) {
+                        map.remove(key);
+                    } else {
+                        map.put(key, change.get("v").asText());
+                    }
+                    replayed++;
+                } catch (IOException | RuntimeException e) {
+                    // a torn write at the end of the log after a crash
+                    LOG.warn("replay: skipping unreadable change in {}: {}", logFile, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("replay: failed to read cache log {}", logFile, e);
+        }
+        return replayed;
+    }
+
+    private void compact() {
+        Properties props = new Properties();
+        props.putAll(map);
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 OutputStream out = Channels.newOutputStream(channel)) {
+                props.store(out, null);
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(tempFile, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            closeLog();
+            Files.deleteIfExists(logFile);
+            LOG.debug("compact: wrote {} entries to {}, {} changes compacted", map.size(), snapshotFile, logEntries);
+            logEntries = 0;
+        } catch (IOException e) {
+            LOG.error("compact: failed to write cache file {}", snapshotFile, e);
+        }
+    }
+
+    private void closeLog() {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            LOG.warn("closeLog: failed to close cache log {}", logFile, e);
+        }
+        log = null;
+    }
+}
@@ -0,0 +1,50 @@
+package org.opennms.plugins.servicenow;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partial asset document holding only the fields changed since the asset was last sent.
+ * <p>
+ * The identifying fields are always kept, so that ServiceNow can find the asset to update.
+ * A field dropped since the last send is kept with a {@code null} value, so that it is cleared.
+ */
+public final class AssetDelta {
+
+    private static final List<String> KEYS = List.of("asset_tag", "sys_class_name");
+
+    private AssetDelta() {
+    }
+
+    /**
+     * @param previous the asset last sent
+     * @param current the asset to send
+     * @return the identifying fields of the current asset and the fields that differ from the previous one
+     */
+    public static ObjectNode of(JsonNode previous, JsonNode current) {
+        ObjectNode delta = JsonNodeFactory.instance.objectNode();
+        for (String key : KEYS) {
+            if (current.has(key)) {
+                delta.set(key, current.get(key));
+            }
+        }
+        for (Iterator<Map.Entry<String, JsonNode>> fields = current.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!field.getValue().equals(previous.get(field.getKey()))) {
+                delta.set(field.getKey(), field.getValue());
+            }
+        }
+        for (Iterator<String> names = previous.fieldNames(); names.hasNext(); ) {
+            String name = names.next();
+            if (!current.has(name)) {
+                delta.putNull(name);
+            }
+        }
+        return delta;
+    }
+}
@@ -0,0 +1,48 @@
+package org.opennms.plugins.servicenow;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Content digest of an asset, used to detect the assets that changed since they were last sent.
+ * <p>
+ * The digest is the SHA-256 of the asset serialized as JSON with the properties in alphabetical order,
+ * so it only depends on the payload sent to ServiceNow and is the same in every JVM.
+ */
+public final class AssetDigest {
+
+    public static final String PREFIX = "sha256:";
+
+    private static final ObjectMapper CANONICAL = JsonMapper.builder()
+            .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+            .build();
+
+    private AssetDigest() {
+    }
+
+    public static String of(Object asset) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return PREFIX + HexFormat.of().formatHex(sha256.digest(CANONICAL.writeValueAsBytes(asset)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("failed to serialize asset " + asset, e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * @return true when the value is a digest, false for the hash codes cached by previous versions
+     */
+    public static boolean isDigest(String value) {
+        return value != null && value.startsWith(PREFIX);
+    }
+}
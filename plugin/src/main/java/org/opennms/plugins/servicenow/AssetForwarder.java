@@ -1,8 +1,6 @@
 package org.opennms.plugins.servicenow;
 
 import org.opennms.integration.api.v1.config.requisition.Requisition;
-import org.opennms.integration.api.v1.config.requisition.RequisitionInterface;
-import org.opennms.integration.api.v1.config.requisition.RequisitionNode;
 import org.opennms.integration.api.v1.model.Node;
 import org.opennms.integration.api.v1.requisition.RequisitionRepository;
 import org.opennms.plugins.servicenow.model.AccessPoint;
@@ -18,9 +16,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-public class AssetForwarder implements Runnable {
+public class AssetForwarder implements Runnable, EdgeService.ParentChangeListener {
     private static final Logger LOG = LoggerFactory.getLogger(AssetForwarder.class);
 
     private static final String ASSET_TAG_SPLIT="-";
@@ -36,6 +39,11 @@ public class AssetForwarder implements Runnable {
     private final PluginEventForwarder eventForwarder;
     private final RequisitionRepository requisitionRepository;
     private final AssetSender assetSender;
+    private final RequisitionCache requisitionCache = new RequisitionCache();
+    private final int requisitionThreads;
+    private ExecutorService requisitionPool;
+    // re-sends the assets of parent changes off the topology refresh thread, one change list at a time
+    private ExecutorService parentChangeThread;
 
     public AssetForwarder(String filter,
                           String filterAccessPoint,
@@ -47,7 +55,8 @@ public class AssetForwarder implements Runnable {
                           EdgeService edgeservice,
                           RequisitionRepository requisitionRepository,
                           PluginEventForwarder eventForwarder,
-                          AssetSender assetSender) {
+                          AssetSender assetSender,
+                          int requisitionThreads) {
         this.filter = Objects.requireNonNull(filter);
         this.filterAccessPoint = Objects.requireNonNull(filterAccessPoint);
         this.locationAccessPointSctt = Objects.requireNonNull(locationAccessPointSctt);
@@ -59,10 +68,40 @@ public class AssetForwarder implements Runnable {
         this.eventForwarder = Objects.requireNonNull(eventForwarder);
         this.requisitionRepository = Objects.requireNonNull(requisitionRepository);
         this.assetSender = Objects.requireNonNull(assetSender);
+        if (requisitionThreads < 1) {
+            throw new IllegalArgumentException("requisition.fetch.threads must be at least 1: " + requisitionThreads);
+        }
+        this.requisitionThreads = requisitionThreads;
 
         LOG.info("init: filter: {}", this.filter);
         LOG.info("init: filterAccessPoint: {}, filterSwitch: {}, filterFirewall: {}, filterModemLte: {}, filterModemXdsl: {}",
                 this.filterAccessPoint, this.filterSwitch, this.filterFirewall, this.filterModemLte, this.filterModemXdsl);
+        LOG.info("init: requisitionThreads: {}", this.requisitionThreads);
+    }
+
+    public void init() {
+        final AtomicInteger count = new AtomicInteger();
+        requisitionPool = Executors.newFixedThreadPool(requisitionThreads, r -> {
+            Thread thread = new Thread(r, "asset-forwarder-requisition-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        parentChangeThread = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "asset-forwarder-parent-change");
+            thread.setDaemon(true);
+            return thread;
+        });
+        edgeService.addParentChangeListener(this);
+    }
+
+    public void destroy() {
+        edgeService.removeParentChangeListener(this);
+        if (parentChangeThread != null) {
+            parentChangeThread.shutdownNow();
+        }
+        if (requisitionPool != null) {
+            requisitionPool.shutdownNow();
+        }
     }
 
     public static String getAssetTag(Node node) {
@@ -86,6 +125,11 @@ public class AssetForwarder implements Runnable {
 
     public void clearCache() {
         assetSender.clearCache();
+        requisitionCache.clear();
+    }
+
+    public QueueStats getQueueStats() {
+        return assetSender.getQueueStats();
     }
 
     public Map<String, String> getNetworkDeviceCache() {
@@ -109,50 +153,54 @@ public class AssetForwarder implements Runnable {
     }
 
     public void sendAsset(Node node, String ipaddress) {
+        sendAsset(node, ipaddress, AssetPriority.REFRESH);
+    }
+
+    public void sendAsset(Node node, String ipaddress, AssetPriority priority) {
 
         if (node.getCategories().contains(filterAccessPoint)) {
             AccessPoint ap = toAccessPoint(node, edgeService.getParent(node), ipaddress, locationAccessPointSctt);
-            if (assetSender.isUnchanged(ap.getAssetTag(), ap.hashCode())) {
+            if (assetSender.isUnchanged(ap)) {
                 LOG.debug("sendAsset: AccessPoint skipping unchanged asset: {}", ap.getAssetTag());
                 return;
             }
-            sendAccessPoint(node, ap);
+            assetSender.enqueue(node, ap, priority);
             return;
         }
         if (node.getCategories().contains(filterSwitch)) {
             NetworkDevice nd = toNetworkDevice(node, edgeService.getParent(node), ipaddress, TipoApparato.SWITCH);
-            if (assetSender.isUnchanged(nd.getAssetTag(), nd.hashCode())) {
+            if (assetSender.isUnchanged(nd)) {
                 LOG.debug("sendAsset: NetworkDevice Switch skipping unchanged asset: {}", nd.getAssetTag());
                 return;
             }
-            sendNetworkDevice(node, nd);
+            assetSender.enqueue(node, nd, priority);
             return;
         }
         if (node.getCategories().contains(filterFirewall)) {
             NetworkDevice nd = toNetworkDevice(node, edgeService.getParent(node), ipaddress, TipoApparato.FIREWALL);
-            if (assetSender.isUnchanged(nd.getAssetTag(), nd.hashCode())) {
+            if (assetSender.isUnchanged(nd)) {
                 LOG.debug("sendAsset: NetworkDevice Firewall skipping unchanged asset: {}", nd.getAssetTag());
                 return;
             }
-            sendNetworkDevice(node, nd);
+            assetSender.enqueue(node, nd, priority);
             return;
         }
         if (node.getCategories().contains(filterModemLte)) {
             NetworkDevice nd = toNetworkDevice(node, edgeService.getParent(node), ipaddress, TipoApparato.MODEM_LTE);
-            if (assetSender.isUnchanged(nd.getAssetTag(), nd.hashCode())) {
+            if (assetSender.isUnchanged(nd)) {
                 LOG.debug("sendAsset: NetworkDevice Modem LTE skipping unchanged asset: {}", nd.getAssetTag());
                 return;
             }
-            sendNetworkDevice(node, nd);
+            assetSender.enqueue(node, nd, priority);
             return;
         }
         if (node.getCategories().contains(filterModemXdsl)) {
             NetworkDevice nd = toNetworkDevice(node, edgeService.getParent(node), ipaddress, TipoApparato.MODEM_XDSL);
-            if (assetSender.isUnchanged(nd.getAssetTag(), nd.hashCode())) {
+            if (assetSender.isUnchanged(nd)) {
                 LOG.debug("sendAsset: NetworkDevice Model XDSL skipping unchanged asset: {}", nd.getAssetTag());
                 return;
             }
-            sendNetworkDevice(node, nd);
+            assetSender.enqueue(node, nd, priority);
             return;
         }
         LOG.info("sendAsset: no match category for node {}", node.getId());
@@ -247,30 +295,78 @@ public class AssetForwarder implements Runnable {
                 .filter(k -> !currentAssetTags.contains(k))
                 .collect(Collectors.toSet());
         cachedDeletedAssetTags.forEach(assetSender::disableAsset);
-        final Map<String, Map<String,String>> reqInterfaceMap = new HashMap<>();
-        Set<String> foreignSources = nodes.stream()
-                .map(Node::getForeignSource).collect(Collectors.toSet());
+        forward(nodes, AssetPriority.REFRESH);
+        requisitionCache.retain(nodes.stream().map(Node::getForeignSource).collect(Collectors.toSet()));
+    }
 
-        LOG.info("run: found: {} foreign sources", foreignSources.size());
-        for (String fs: foreignSources) {
+    /**
+     * Re-sends only the assets of the nodes whose parent changed, instead of waiting for the next run.
+     * Returns at once: loading the requisitions and queueing the assets would otherwise hold up the
+     * scheduler thread running the topology refreshes and the asset runs.
+     */
+    @Override
+    public void onParentsChanged(long generation, List<ParentChange> changes) {
+        try {
+            parentChangeThread.execute(() -> {
+                try {
+                    resendParentChanges(generation, changes);
+                } catch (RuntimeException e) {
+                    LOG.error("onParentsChanged: failed to re-send the assets of topology generation {}", generation, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.warn("onParentsChanged: stopped, ignoring {} parent changes of topology generation {}", changes.size(), generation);
+        }
+    }
+
+    private void resendParentChanges(long generation, List<ParentChange> changes) {
+        Set<Integer> changedNodeIds = changes.stream().map(ParentChange::nodeId).collect(Collectors.toSet());
+        List<Node> nodes = edgeService.getNodes().stream()
+                .filter(n -> changedNodeIds.contains(n.getId()))
+                .filter(n -> n.getCategories().contains(filter))
+                .toList();
+        LOG.info("resendParentChanges: topology generation {}: {} parents changed, {} asset nodes to re-send",
+                generation, changes.size(), nodes.size());
+        if (!nodes.isEmpty()) {
+            forward(nodes, AssetPriority.PARENT_CHANGE);
+        }
+    }
+
+    /**
+     * @return the ip address by foreign id of the deployed requisition, or null when it cannot be loaded
+     */
+    private Map<String, String> loadRequisition(String fs, Set<String> fids) {
+        try {
             Requisition req = requisitionRepository.getDeployedRequisition(fs);
             if (req == null) {
                 LOG.warn("run: no deployed requisition for fs: {}", fs);
-                continue;
+                return null;
             }
-            Map<String,String> fidIpMap = new HashMap<>();
-            for (RequisitionNode rn : req.getNodes()) {
-                if (rn.getInterfaces().isEmpty()) {
-                    LOG.debug("run: no requisition interface for fs:{}, fid:{}", fs, rn.getForeignId());
-                    continue;
-                }
-                RequisitionInterface ri = rn.getInterfaces().get(0);
-                String ipaddress = ri.getIpAddress().getHostAddress();
-                LOG.debug("run: found ip: {} for: fs: {}, fid: {} ", ipaddress, fs, rn.getForeignId());
-                fidIpMap.put(rn.getForeignId(), ipaddress);
-            }
-            reqInterfaceMap.put(fs, fidIpMap);
+            return requisitionCache.project(req, fids);
+        } catch (Exception e) {
+            LOG.error("run: failed to load deployed requisition for fs: {}", fs, e);
+            return null;
         }
+    }
+
+    private void forward(List<Node> nodes, AssetPriority priority) {
+        final Map<String, Set<String>> foreignIdsByForeignSource = nodes.stream()
+                .collect(Collectors.groupingBy(Node::getForeignSource,
+                        Collectors.mapping(Node::getForeignId, Collectors.toSet())));
+
+        LOG.info("run: found: {} foreign sources", foreignIdsByForeignSource.size());
+        final long start = System.currentTimeMillis();
+        final Map<String, CompletableFuture<Map<String, String>>> loads = new HashMap<>();
+        foreignIdsByForeignSource.forEach((fs, fids) ->
+                loads.put(fs, CompletableFuture.supplyAsync(() -> loadRequisition(fs, fids), requisitionPool)));
+        final Map<String, Map<String,String>> reqInterfaceMap = new HashMap<>();
+        loads.forEach((fs, load) -> {
+            Map<String, String> fidIpMap = load.join();
+            if (fidIpMap != null) {
+                reqInterfaceMap.put(fs, fidIpMap);
+            }
+        });
+        LOG.info("run: loaded {} deployed requisitions in {} ms", reqInterfaceMap.size(), System.currentTimeMillis() - start);
 
         for (Node node: nodes) {
             LOG.debug("run: processing node with id:{} fs:{}, fid:{}",
@@ -290,7 +386,7 @@ public class AssetForwarder implements Runnable {
             String ipaddress = reqInterfaceMap.get(node.getForeignSource()).get(node.getForeignId());
             LOG.debug("run: ip address {} found for foreign id : {}-{}",ipaddress, node.getForeignSource(), node.getForeignId());
             try {
-                sendAsset(node, ipaddress);
+                sendAsset(node, ipaddress, priority);
             } catch (Exception e) {
                 LOG.error("run: unexpected error processing node {}-{}", node.getForeignSource(), node.getForeignId(), e);
                 eventForwarder.sendAssetFailed(node.getId(), e.getMessage());
@@ -0,0 +1,39 @@
+package org.opennms.plugins.servicenow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Why an asset is queued for sending. The order in which the reasons are served is set by {@code asset.priority.order}.
+ */
+public enum AssetPriority {
+    /** the node is gone, the asset is disabled */
+    DISABLE,
+    /** the parent of the node changed in the last topology refresh */
+    PARENT_CHANGE,
+    /** the periodic asset synchronisation */
+    REFRESH;
+
+    /**
+     * Parses a comma separated list of priorities, highest first. Priorities not listed follow the listed ones
+     * in their default order.
+     *
+     * @return the priorities, highest first
+     */
+    public static List<AssetPriority> parseOrder(String order) {
+        final List<AssetPriority> priorities = new ArrayList<>();
+        for (String value : order.split(",")) {
+            if (value.isBlank()) {
+                continue;
+            }
+            AssetPriority priority = AssetPriority.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            if (!priorities.contains(priority)) {
+                priorities.add(priority);
+            }
+        }
+        Arrays.stream(values()).filter(p -> !priorities.contains(p)).forEach(priorities::add);
+        return priorities;
+    }
+}
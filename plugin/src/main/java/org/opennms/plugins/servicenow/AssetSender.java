@@ -1,43 +1,61 @@
 package org.opennms.plugins.servicenow;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.opennms.integration.api.v1.model.Node;
+import org.opennms.plugins.servicenow.client.ApiClientCredentials;
 import org.opennms.plugins.servicenow.client.ApiClientProvider;
 import org.opennms.plugins.servicenow.client.ApiException;
-import org.opennms.plugins.servicenow.client.ClientManager;
 import org.opennms.plugins.servicenow.connection.ConnectionManager;
 import org.opennms.plugins.servicenow.model.AccessPoint;
+import org.opennms.plugins.servicenow.model.AssetResult;
 import org.opennms.plugins.servicenow.model.InstallStatus;
 import org.opennms.plugins.servicenow.model.NetworkDevice;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public class AssetSender {
     private static final Logger LOG = LoggerFactory.getLogger(AssetSender.class);
 
-    private record AccessPointNode(AccessPoint ap, Node n) {
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    @FunctionalInterface
+    private interface AssetCall<T, R> {
+        CompletableFuture<R> send(T payload, ApiClientCredentials credentials, long timeoutMs);
+    }
+
+    /**
+     * A class of assets: the cache of the JSON last sent, and how an asset is sent alone or in a batch.
+     */
+    private record AssetType<A>(String name,
+                                AssetCacheStore sent,
+                                Function<A, String> assetTag,
+                                AssetCall<A, Void> single,
+                                AssetCall<List<A>, List<AssetResult>> batch) {
     }
 
-    private record NetworkDeviceNode(NetworkDevice nd, Node n) {
+    private record QueuedAsset<A>(AssetType<A> type, A asset, Node n) {
+        String assetTag() {
+            return type.assetTag().apply(asset);
+        }
     }
 
     private final ConnectionManager connectionManager;
@@ -46,20 +64,26 @@ public class AssetSender {
     private final int maxRetry;
     private final long retryDelay;
     private final long timeoutMs;
+    private final int batchSize;
+    private final boolean deltaEnabled;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
 
-    private final String hashCacheFile;
-    private final String networkDeviceCacheFile;
-    private final String accessPointCacheFile;
-    private final Map<String, String> hashCache = new HashMap<>();
-    private final Map<String, String> accessPointMap = new HashMap<>();
-    private final Map<String, String> networkDeviceMap = new HashMap<>();
+    private final AssetCacheStore hashCache;
+    private final AssetCacheStore networkDeviceMap;
+    private final AssetCacheStore accessPointMap;
+    private final AssetType<AccessPoint> accessPointType;
+    private final AssetType<NetworkDevice> networkDeviceType;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    private final LinkedBlockingQueue<AccessPointNode> apQueue = new LinkedBlockingQueue<>();
-    private final LinkedBlockingQueue<NetworkDeviceNode> ndQueue = new LinkedBlockingQueue<>();
+    // one level per priority, each asset type batched separately
+    private final PriorityBatchQueue<QueuedAsset<?>> queue = new PriorityBatchQueue<>(AssetPriority.values().length, QueuedAsset::type, QueuedAsset::assetTag);
+    private final int[] levelByPriority = new int[AssetPriority.values().length];
+    // Serializes the admission of assets, so that the queue never holds more than capacity assets
+    private final Object admission = new Object();
+    private final AtomicLong dropped = new AtomicLong();
     private volatile boolean running = false;
     private ExecutorService queueThread;
-    private final ExecutorService sendThread = Executors.newSingleThreadExecutor(r -> new Thread(r, "asset-forwarder-send"));
 
     public AssetSender(ConnectionManager connectionManager,
                        ApiClientProvider apiClientProvider,
@@ -67,34 +91,154 @@ public class AssetSender {
                        int maxRetry,
                        long retryDelay,
                        long timeoutMs,
-                       String assetCacheFilePrefix) {
+                       int batchSize,
+                       String assetCacheFilePrefix,
+                       String priorityOrder,
+                       boolean deltaEnabled,
+                       int capacity,
+                       String overflowPolicy) {
         this.connectionManager = connectionManager;
         this.apiClientProvider = apiClientProvider;
         this.eventForwarder = eventForwarder;
         this.maxRetry = maxRetry;
         this.retryDelay = retryDelay;
         this.timeoutMs = timeoutMs;
-        this.hashCacheFile = assetCacheFilePrefix + ".properties";
-        this.networkDeviceCacheFile = assetCacheFilePrefix + "-NetworkDevice.properties";
-        this.accessPointCacheFile = assetCacheFilePrefix + "-AccessPoint.properties";
-        loadCache();
-        loadNetworkDeviceCache();
-        loadAccessPointCache();
+        this.batchSize = Math.max(1, batchSize);
+        this.deltaEnabled = deltaEnabled;
+        if (capacity < 1) {
+            throw new IllegalArgumentException("asset.queue.capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = OverflowPolicy.parse(overflowPolicy);
+        if (this.overflowPolicy != OverflowPolicy.BLOCK && this.overflowPolicy != OverflowPolicy.DROP_OLDEST_NON_CRITICAL) {
+            throw new IllegalArgumentException("asset.queue.overflow not supported for assets: " + overflowPolicy);
+        }
+        List<AssetPriority> priorities = AssetPriority.parseOrder(priorityOrder);
+        for (int level = 0; level < priorities.size(); level++) {
+            levelByPriority[priorities.get(level).ordinal()] = level;
+        }
+        this.hashCache = new AssetCacheStore(assetCacheFilePrefix + ".properties");
+        this.networkDeviceMap = new AssetCacheStore(assetCacheFilePrefix + "-NetworkDevice.properties");
+        this.accessPointMap = new AssetCacheStore(assetCacheFilePrefix + "-AccessPoint.properties");
+        hashCache.load();
+        networkDeviceMap.load();
+        accessPointMap.load();
+        this.accessPointType = new AssetType<>("AccessPoint", accessPointMap, AccessPoint::getAssetTag,
+                (ap, credentials, timeout) -> this.apiClientProvider.sendAsync(ap, credentials, timeout),
+                (aps, credentials, timeout) -> this.apiClientProvider.sendAccessPointsAsync(aps, credentials, timeout));
+        this.networkDeviceType = new AssetType<>("NetworkDevice", networkDeviceMap, NetworkDevice::getAssetTag,
+                (nd, credentials, timeout) -> this.apiClientProvider.sendAsync(nd, credentials, timeout),
+                (nds, credentials, timeout) -> this.apiClientProvider.sendNetworkDevicesAsync(nds, credentials, timeout));
+        migrateHashCache();
+    }
+
+    /**
+     * Replaces the hash codes cached by previous versions with the digest of the asset last sent,
+     * so that the assets are not all sent again after the upgrade.
+     * A hash code without a cached asset is dropped: with nothing to disable the asset from, it would
+     * otherwise be looked up on every run once its node is deleted; if the node still exists its asset
+     * is sent again by the next run.
+     */
+    private void migrateHashCache() {
+        int migrated = 0;
+        int dropped = 0;
+        for (String assetTag : Set.copyOf(hashCache.keySet())) {
+            if (AssetDigest.isDigest(hashCache.get(assetTag))) {
+                continue;
+            }
+            Object asset = null;
+            if (networkDeviceMap.containsKey(assetTag)) {
+                asset = toNetworkDevice(networkDeviceMap.get(assetTag));
+            } else if (accessPointMap.containsKey(assetTag)) {
+                asset = toAccessPoint(accessPointMap.get(assetTag));
+            }
+            if (asset == null) {
+                hashCache.remove(assetTag);
+                dropped++;
+                continue;
+            }
+            hashCache.put(assetTag, AssetDigest.of(asset));
+            migrated++;
+        }
+        if (migrated > 0 || dropped > 0) {
+            LOG.info("migrateHashCache: migrated {} cached hashes to digests, dropped {} without cached asset", migrated, dropped);
+        }
     }
 
     public void enqueue(Node n, AccessPoint ap) {
-        apQueue.offer(new AccessPointNode(ap, n));
+        enqueue(n, ap, AssetPriority.REFRESH);
     }
 
     public void enqueue(Node n, NetworkDevice nd) {
-        ndQueue.offer(new NetworkDeviceNode(nd, n));
+        enqueue(n, nd, AssetPriority.REFRESH);
+    }
+
+    public void enqueue(Node n, AccessPoint ap, AssetPriority priority) {
+        admit(levelByPriority[priority.ordinal()], new QueuedAsset<>(accessPointType, ap, n));
+    }
+
+    public void enqueue(Node n, NetworkDevice nd, AssetPriority priority) {
+        admit(levelByPriority[priority.ordinal()], new QueuedAsset<>(networkDeviceType, nd, n));
+    }
+
+    public QueueStats getQueueStats() {
+        return new QueueStats("asset", queue.size(), capacity, overflowPolicy, dropped.get(), 0);
+    }
+
+    /**
+     * Queues the asset, applying the overflow policy when the queue is full.
+     * Dropping an asset loses nothing for good: its digest is not cached, so the next run sends it again.
+     */
+    private void admit(int level, QueuedAsset<?> asset) {
+        if (overflowPolicy == OverflowPolicy.BLOCK && queue.size() >= capacity && !queue.containsKey(asset.assetTag())) {
+            try {
+                queue.awaitSizeBelow(capacity, timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (admission) {
+            // an asset already queued is merged with its update, which takes no room
+            if (queue.size() < capacity || queue.containsKey(asset.assetTag())) {
+                if (queue.offer(level, asset) != null) {
+                    LOG.debug("admit: merged queued asset: {}", asset.assetTag());
+                }
+                return;
+            }
+            if (overflowPolicy == OverflowPolicy.BLOCK) {
+                drop(asset, "asset queue full for " + timeoutMs + "ms");
+                return;
+            }
+            // the assets of the lowest priority are the non critical ones
+            int lastLevel = queue.lastLevel();
+            if (lastLevel < level) {
+                drop(asset, "asset queue full of higher priority assets");
+                return;
+            }
+            QueuedAsset<?> victim = queue.removeOldest(lastLevel);
+            if (victim != null) {
+                drop(victim, "asset queue full");
+            }
+            queue.offer(level, asset);
+        }
+    }
+
+    private void drop(QueuedAsset<?> asset, String message) {
+        dropped.incrementAndGet();
+        LOG.warn("drop: {} (capacity={}, policy={}), dropping asset: {}", message, capacity, overflowPolicy, asset.assetTag());
+        if (asset.n() != null) {
+            eventForwarder.sendAssetDropped(asset.n().getId(), message, asset.assetTag());
+        } else {
+            eventForwarder.sendAssetDropped(message, asset.assetTag());
+        }
     }
 
     public void start() {
         running = true;
         queueThread = Executors.newSingleThreadExecutor(r -> new Thread(r, "asset-forwarder-queue"));
         queueThread.submit(this::processQueue);
-        LOG.info("start: asset sender started (timeoutMs={})", timeoutMs);
+        LOG.info("start: asset sender started (timeoutMs={}, batchSize={}, priorityLevels={}, deltaEnabled={}, capacity={}, overflowPolicy={})",
+                timeoutMs, batchSize, Arrays.toString(levelByPriority), deltaEnabled, capacity, overflowPolicy);
     }
 
     public void stop() {
@@ -102,17 +246,26 @@ public class AssetSender {
         if (queueThread != null) {
             queueThread.shutdownNow();
         }
-        sendThread.shutdownNow();
+        hashCache.close();
+        networkDeviceMap.close();
+        accessPointMap.close();
         LOG.info("stop: asset sender stopped");
     }
 
-    public boolean isUnchanged(String assetTag, int hash) {
-        String cachedHash = hashCache.get(assetTag);
-        String newHash = String.valueOf(hash);
-        if (newHash.equals(cachedHash)) {
+    public boolean isUnchanged(AccessPoint ap) {
+        return isUnchanged(ap.getAssetTag(), AssetDigest.of(ap));
+    }
+
+    public boolean isUnchanged(NetworkDevice nd) {
+        return isUnchanged(nd.getAssetTag(), AssetDigest.of(nd));
+    }
+
+    public boolean isUnchanged(String assetTag, String digest) {
+        String cachedDigest = hashCache.get(assetTag);
+        if (digest.equals(cachedDigest)) {
             return true;
         }
-        LOG.debug("isUnchanged: asset {} changed: cached={}, new={}", assetTag, cachedHash, newHash);
+        LOG.debug("isUnchanged: asset {} changed: cached={}, new={}", assetTag, cachedDigest, digest);
         return false;
     }
 
@@ -124,22 +277,14 @@ public class AssetSender {
         hashCache.clear();
         networkDeviceMap.clear();
         accessPointMap.clear();
-        for (String file : new String[]{hashCacheFile, networkDeviceCacheFile, accessPointCacheFile}) {
-            try {
-                Files.deleteIfExists(Paths.get(file));
-                LOG.info("clearCache: deleted {}", file);
-            } catch (IOException e) {
-                LOG.error("clearCache: failed to delete {}", file, e);
-            }
-        }
     }
 
     public Map<String, String> getNetworkDeviceCache() {
-        return networkDeviceMap;
+        return networkDeviceMap.asMap();
     }
 
     public Map<String, String> getAccessPointCache() {
-        return accessPointMap;
+        return accessPointMap.asMap();
     }
 
     public NetworkDevice toNetworkDevice(String json) {
@@ -172,7 +317,7 @@ public class AssetSender {
                 return true;
             }
             nd.setInstallStatus(InstallStatus.DISATTIVO);
-            enqueue(null, nd);
+            enqueue(null, nd, AssetPriority.DISABLE);
             return true;
         }
         if (accessPointMap.containsKey(assetTag)) {
@@ -186,92 +331,15 @@ public class AssetSender {
                 return true;
             }
             ap.setInstallStatus(InstallStatus.DISATTIVO);
-            enqueue(null, ap);
+            enqueue(null, ap, AssetPriority.DISABLE);
             return true;
         }
         LOG.debug("disableAsset: asset not found in cache: {}", assetTag);
         return false;
     }
 
-    private void loadCache() {
-        Path path = Paths.get(hashCacheFile);
-        if (!Files.exists(path)) {
-            LOG.info("loadCache: hash cache file not found, starting fresh: {}", hashCacheFile);
-            return;
-        }
-        Properties props = new Properties();
-        try (InputStream in = Files.newInputStream(path)) {
-            props.load(in);
-            props.forEach((k, v) -> hashCache.put((String) k, (String) v));
-            LOG.info("loadCache: loaded {} entries from {}", hashCache.size(), hashCacheFile);
-        } catch (IOException e) {
-            LOG.warn("loadCache: failed to read cache file {}, starting fresh", hashCacheFile, e);
-        }
-    }
-
-    private void loadNetworkDeviceCache() {
-        Path path = Paths.get(networkDeviceCacheFile);
-        if (!Files.exists(path)) {
-            LOG.info("loadNetworkDeviceCache: cache file not found, starting fresh: {}", networkDeviceCacheFile);
-            return;
-        }
-        Properties props = new Properties();
-        try (InputStream in = Files.newInputStream(path)) {
-            props.load(in);
-            props.forEach((k, v) -> networkDeviceMap.put((String) k, (String) v));
-            LOG.info("loadNetworkDeviceCache: loaded {} entries from {}", networkDeviceMap.size(), networkDeviceCacheFile);
-        } catch (IOException e) {
-            LOG.warn("loadNetworkDeviceCache: failed to read cache file {}, starting fresh", networkDeviceCacheFile, e);
-        }
-    }
-
-    private void loadAccessPointCache() {
-        Path path = Paths.get(accessPointCacheFile);
-        if (!Files.exists(path)) {
-            LOG.info("loadAccessPointCache: cache file not found, starting fresh: {}", accessPointCacheFile);
-            return;
-        }
-        Properties props = new Properties();
-        try (InputStream in = Files.newInputStream(path)) {
-            props.load(in);
-            props.forEach((k, v) -> accessPointMap.put((String) k, (String) v));
-            LOG.info("loadAccessPointCache: loaded {} entries from {}", accessPointMap.size(), accessPointCacheFile);
-        } catch (IOException e) {
-            LOG.warn("loadAccessPointCache: failed to read cache file {}, starting fresh", accessPointCacheFile, e);
-        }
-    }
-
-    private void updateCache(String assetTag, int hash) {
-        hashCache.put(assetTag, String.valueOf(hash));
-        Properties props = new Properties();
-        props.putAll(hashCache);
-        try (OutputStream out = Files.newOutputStream(Paths.get(hashCacheFile))) {
-            props.store(out, null);
-        } catch (IOException e) {
-            LOG.error("updateCache: failed to write cache file {}", hashCacheFile, e);
-        }
-    }
-
-    private void updateDataCache(NetworkDevice networkDevice) {
-        networkDeviceMap.put(networkDevice.getAssetTag(), toJson(networkDevice));
-        Properties props = new Properties();
-        props.putAll(networkDeviceMap);
-        try (OutputStream out = Files.newOutputStream(Paths.get(networkDeviceCacheFile))) {
-            props.store(out, null);
-        } catch (IOException e) {
-            LOG.error("updateDataCache: failed to write data cache file {}", networkDeviceCacheFile, e);
-        }
-    }
-
-    private void updateDataCache(AccessPoint accessPoint) {
-        accessPointMap.put(accessPoint.getAssetTag(), toJson(accessPoint));
-        Properties props = new Properties();
-        props.putAll(accessPointMap);
-        try (OutputStream out = Files.newOutputStream(Paths.get(accessPointCacheFile))) {
-            props.store(out, null);
-        } catch (IOException e) {
-            LOG.error("updateDataCache: failed to write data cache file {}", accessPointCacheFile, e);
-        }
+    private void updateCache(String assetTag, String digest) {
+        hashCache.put(assetTag, digest);
     }
 
     private String toJson(Object obj) {
@@ -286,139 +354,207 @@ public class AssetSender {
     private void processQueue() {
         while (running) {
             try {
-                AccessPointNode ap = apQueue.poll(1, TimeUnit.SECONDS);
-                if (ap != null) {
-                    Future<?> future = sendThread.submit(() -> sendAccessPoint(ap, 0));
-                    try {
-                        future.get(timeoutMs, TimeUnit.MILLISECONDS);
-                    } catch (TimeoutException e) {
-                        future.cancel(true);
-                        LOG.warn("processQueue: send timed out after {}ms for AccessPoint: {}", timeoutMs, ap);
-                        if (ap.n() != null) {
-                            eventForwarder.sendAssetFailed(ap.n().getId(), e.getMessage(), ap.ap().getAssetTag());
-                        } else {
-                            eventForwarder.sendAssetFailed(e.getMessage(), ap.ap().getAssetTag());
-                        }
-                    } catch (ExecutionException e) {
-                        LOG.error("processQueue: send failed for AccessPoint: {}", ap, e.getCause());
-                        if (ap.n() != null) {
-                            eventForwarder.sendAssetFailed(ap.n().getId(), e.getMessage(), ap.ap().getAssetTag());
-                        } else {
-                            eventForwarder.sendAssetFailed(e.getMessage(), ap.ap().getAssetTag());
-                        }
-                    }
-                }
+                send(queue.take(batchSize));
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
             }
-            try {
-                NetworkDeviceNode nd = ndQueue.poll(1, TimeUnit.SECONDS);
-                if (nd != null) {
-                    Future<?> future = sendThread.submit(() -> sendNetworkDevice(nd, 0));
-                    try {
-                        future.get(timeoutMs, TimeUnit.MILLISECONDS);
-                    } catch (TimeoutException e) {
-                        future.cancel(true);
-                        LOG.warn("processQueue: send timed out after {}ms for NetworkDevice: {}", timeoutMs, nd);
-                        if (nd.n() != null) {
-                            eventForwarder.sendAssetFailed(nd.n().getId(), e.getMessage(), nd.nd().getAssetTag());
-                        } else {
-                            eventForwarder.sendAssetFailed(e.getMessage(), nd.nd().getAssetTag());
-                        }
-                    } catch (ExecutionException e) {
-                        LOG.error("processQueue: send failed for NetworkDevice: {}", nd, e.getCause());
-                        if (nd.n() != null) {
-                            eventForwarder.sendAssetFailed(nd.n().getId(), e.getMessage(), nd.nd().getAssetTag());
-                        } else {
-                            eventForwarder.sendAssetFailed(e.getMessage(), nd.nd().getAssetTag());
-                        }
-                    }
+        }
+    }
+
+    private void send(List<QueuedAsset<?>> batch) throws InterruptedException {
+        AssetType<?> type = batch.get(0).type();
+        SendScope scope = SendScope.start(s -> sendBatch(type, batch, s), timeoutMs);
+        try {
+            scope.result.get();
+        } catch (ExecutionException e) {
+            for (QueuedAsset<?> sent : batch) {
+                if (e.getCause() instanceof TimeoutException) {
+                    LOG.warn("processQueue: send timed out after {}ms for {}: {}", timeoutMs, type.name(), sent.asset());
+                } else {
+                    LOG.error("processQueue: send failed for {}: {}", type.name(), sent.asset(), e.getCause());
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
+                assetFailed(sent.n(), e.getMessage(), sent.assetTag());
             }
+        } catch (InterruptedException e) {
+            scope.cancel();
+            throw e;
         }
     }
 
-    private void sendAccessPoint(AccessPointNode ap, int retry) {
-        AccessPoint accessPoint = ap.ap();
-        Node node = ap.n();
-        if (maxRetry == retry) {
-            LOG.warn("sendAccessPoint: skipping AccessPoint {}, too many retry {}", accessPoint.getAssetTag(), retry);
+    private void assetSuccessful(Node node, String assetTag) {
+        if (node != null) {
+            eventForwarder.sendAssetSuccessful(node.getId(), assetTag);
+        } else {
+            eventForwarder.sendAssetSuccessful(assetTag);
         }
-        retry++;
-        LOG.debug("sendAccessPoint: sending {}", accessPoint);
-        try {
-            apiClientProvider.send(
-                    accessPoint,
-                    ClientManager.asApiClientCredentials(connectionManager.getConnection().orElseThrow()));
-            updateCache(accessPoint.getAssetTag(), accessPoint.hashCode());
-            updateDataCache(accessPoint);
-            if (node != null) {
-                eventForwarder.sendAssetSuccessful(node.getId(), accessPoint.getAssetTag());
-            } else {
-                eventForwarder.sendAssetSuccessful(accessPoint.getAssetTag());
-            }
-            LOG.info("sendAccessPoint: forwarded: {}", accessPoint);
-        } catch (ApiException e) {
-            LOG.error("sendAccessPoint: failed to send:  {}, message: {}, body: {}",
-                    node,
-                    e.getMessage(),
-                    e.getResponseBody(), e);
-            if (node != null) {
-                eventForwarder.sendAssetFailed(node.getId(), e.getMessage(), accessPoint.getAssetTag());
-            } else {
-                eventForwarder.sendAssetFailed(e.getMessage(), accessPoint.getAssetTag());
-            }
-            try {
-                Thread.sleep(retryDelay * retry);
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
-                return;
-            }
-            sendAccessPoint(ap, retry);
+    }
+
+    private void assetFailed(Node node, String message, String assetTag) {
+        if (node != null) {
+            eventForwarder.sendAssetFailed(node.getId(), message, assetTag);
+        } else {
+            eventForwarder.sendAssetFailed(message, assetTag);
+        }
+    }
+
+    /**
+     * Maps the per asset results of a batch upsert by asset tag and returns the failure message
+     * for the asset, or {@code null} when it was accepted.
+     * When the endpoint does not report per asset results every asset of the batch is accepted.
+     */
+    private static String batchFailure(Map<String, AssetResult> results, String assetTag) {
+        if (results.isEmpty()) {
+            return null;
+        }
+        AssetResult result = results.get(assetTag);
+        if (result == null) {
+            return "No result returned for asset";
         }
+        return result.isError() ? String.valueOf(result.getStatusMessage()) : null;
     }
 
-    private void sendNetworkDevice(NetworkDeviceNode nd, int retry) {
-        NetworkDevice networkDevice = nd.nd();
-        Node node = nd.n();
-        if (maxRetry == retry) {
-            LOG.warn("sendNetworkDevice: skipping NetworkDevice {}, too many retry {}", networkDevice.getAssetTag(), retry);
+    private static Map<String, AssetResult> byAssetTag(List<AssetResult> results) {
+        Map<String, AssetResult> map = new HashMap<>();
+        results.stream().filter(r -> r.getAssetTag() != null).forEach(r -> map.put(r.getAssetTag(), r));
+        return map;
+    }
+
+    /**
+     * @return the fields of the asset changed since it was last sent, or the whole asset when it was never sent
+     */
+    private JsonNode toPayload(Object asset, String assetTag, AssetCacheStore sent) {
+        JsonNode current = objectMapper.valueToTree(asset);
+        String cached = sent.get(assetTag);
+        if (cached == null || cached.isEmpty()) {
+            return current;
         }
-        retry++;
-        LOG.debug("sendNetworkDevice: sending {}", networkDevice);
         try {
-            apiClientProvider.send(
-                    networkDevice,
-                    ClientManager.asApiClientCredentials(connectionManager.getConnection().orElseThrow()));
-            updateCache(networkDevice.getAssetTag(), networkDevice.hashCode());
-            updateDataCache(networkDevice);
-            if (node != null) {
-                eventForwarder.sendAssetSuccessful(node.getId(), networkDevice.getAssetTag());
-            } else {
-                eventForwarder.sendAssetSuccessful(networkDevice.getAssetTag());
-            }
-            LOG.info("sendNetworkDevice: forwarded: {}", networkDevice);
-        } catch (ApiException e) {
-            if (node != null) {
-                eventForwarder.sendAssetFailed(node.getId(), e.getMessage(), networkDevice.getAssetTag());
-            } else {
-                eventForwarder.sendAssetFailed(e.getMessage(), networkDevice.getAssetTag());
-            }
-            LOG.error("sendNetworkDevice: failed to send:  {}, message: {}, body: {}",
-                    node,
-                    e.getMessage(),
-                    e.getResponseBody(), e);
-            try {
-                Thread.sleep(retryDelay * retry);
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
-                return;
+            JsonNode previous = objectMapper.readTree(cached);
+            if (previous == null || !previous.isObject()) {
+                return current;
             }
-            sendNetworkDevice(nd, retry);
+            ObjectNode delta = AssetDelta.of(previous, current);
+            LOG.debug("toPayload: asset {}: sending {} of {} fields", assetTag, delta.size(), current.size());
+            return delta;
+        } catch (JsonProcessingException e) {
+            LOG.warn("toPayload: failed to read cached asset {}, sending it whole", assetTag, e);
+            return current;
         }
     }
-}
\ No newline at end of file
+
+    private <A> CompletableFuture<Void> sendAsync(QueuedAsset<A> queued) {
+        ApiClientCredentials credentials = connectionManager.getCredentials().orElseThrow();
+        if (deltaEnabled) {
+            return apiClientProvider.sendAssetAsync(toPayload(queued.asset(), queued.assetTag(), queued.type().sent()), credentials, timeoutMs);
+        }
+        return queued.type().single().send(queued.asset(), credentials, timeoutMs);
+    }
+
+    private <A> CompletableFuture<List<AssetResult>> sendBatchAsync(AssetType<A> type, List<QueuedAsset<A>> batch) {
+        ApiClientCredentials credentials = connectionManager.getCredentials().orElseThrow();
+        if (deltaEnabled) {
+            return apiClientProvider.sendAssetsAsync(batch.stream()
+                    .map(queued -> toPayload(queued.asset(), queued.assetTag(), type.sent()))
+                    .collect(Collectors.toList()), credentials, timeoutMs);
+        }
+        return type.batch().send(batch.stream().map(QueuedAsset::asset).collect(Collectors.toList()), credentials, timeoutMs);
+    }
+
+    // the assets of a batch all have the type of the batch
+    @SuppressWarnings("unchecked")
+    private static <A> List<QueuedAsset<A>> ofType(AssetType<A> type, List<QueuedAsset<?>> batch) {
+        return batch.stream().map(queued -> (QueuedAsset<A>) queued).toList();
+    }
+
+    private <A> CompletableFuture<Void> sendBatch(AssetType<A> type, List<QueuedAsset<?>> queued, SendScope scope) {
+        final List<QueuedAsset<A>> batch = ofType(type, queued);
+        if (batch.size() == 1) {
+            return sendAsset(batch.get(0), scope);
+        }
+        LOG.debug("sendBatch: sending batch of {} {}", batch.size(), type.name());
+        return scope.track(() -> sendBatchAsync(type, batch))
+                .handle((assetResults, t) -> {
+                    if (t == null) {
+                        Map<String, AssetResult> results = byAssetTag(assetResults);
+                        int forwarded = 0;
+                        for (QueuedAsset<A> asset : batch) {
+                            String failure = batchFailure(results, asset.assetTag());
+                            if (failure != null) {
+                                LOG.error("sendBatch: failed to send {}: {}, message: {}", type.name(), asset.assetTag(), failure);
+                                assetFailed(asset.n(), failure, asset.assetTag());
+                                continue;
+                            }
+                            sent(asset);
+                            forwarded++;
+                        }
+                        LOG.info("sendBatch: forwarded {}: {} of {}", type.name(), forwarded, batch.size());
+                        return DONE;
+                    }
+                    Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                    if (!isRejected(cause) || scope.isDone()) {
+                        return CompletableFuture.<Void>failedFuture(cause);
+                    }
+                    LOG.warn("sendBatch: batch of {} {} rejected, sending one by one, message: {}, body: {}",
+                            batch.size(),
+                            type.name(),
+                            cause.getMessage(),
+                            ((ApiException) cause).getResponseBody());
+                    CompletableFuture<Void> oneByOne = DONE;
+                    for (QueuedAsset<A> asset : batch) {
+                        oneByOne = oneByOne.thenCompose(v -> sendAsset(asset, scope));
+                    }
+                    return oneByOne;
+                })
+                .thenCompose(f -> f);
+    }
+
+    /**
+     * Sends one asset with retries. A rejected asset is reported as failed without failing the send,
+     * so the assets after it in a rejected batch are still sent; it is not cached, so the next run sends it again.
+     */
+    private <A> CompletableFuture<Void> sendAsset(QueuedAsset<A> asset, SendScope scope) {
+        final String name = asset.type().name();
+        LOG.debug("sendAsset: sending {}: {}", name, asset.asset());
+        return scope.track(RetryingSend.<Void>send(
+                () -> sendAsync(asset),
+                (retry, e) -> LOG.error("sendAsset: failed to send {}: {}, attempt {} of {}, message: {}, body: {}",
+                        name,
+                        asset.n(),
+                        retry,
+                        maxRetry,
+                        e.getMessage(),
+                        e.getResponseBody(), e),
+                maxRetry,
+                retryDelay))
+                .handle((v, t) -> {
+                    if (t == null) {
+                        sent(asset);
+                        LOG.info("sendAsset: forwarded {}: {}", name, asset.asset());
+                        return DONE;
+                    }
+                    Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                    if (!isRejected(cause) || scope.isDone()) {
+                        return CompletableFuture.<Void>failedFuture(cause);
+                    }
+                    LOG.error("sendAsset: {} {} rejected, message: {}, body: {}",
+                            name,
+                            asset.assetTag(),
+                            cause.getMessage(),
+                            ((ApiException) cause).getResponseBody());
+                    assetFailed(asset.n(), cause.getMessage(), asset.assetTag());
+                    return DONE;
+                })
+                .thenCompose(f -> f);
+    }
+
+    private <A> void sent(QueuedAsset<A> asset) {
+        updateCache(asset.assetTag(), AssetDigest.of(asset.asset()));
+        asset.type().sent().put(asset.assetTag(), toJson(asset.asset()));
+        assetSuccessful(asset.n(), asset.assetTag());
+    }
+
+    private static boolean isRejected(Throwable cause) {
+        return cause instanceof ApiException && ((ApiException) cause).isRejected();
+    }
+}
@@ -0,0 +1,130 @@
+package org.opennms.plugins.servicenow;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * FIFO queue holding at most one value per key.
+ * Offering a value for a key that is already queued replaces the queued value
+ * in place: the key keeps its position and only the latest value is handed out.
+ */
+public class CoalescingQueue<K, V> {
+
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition removed = lock.newCondition();
+
+    /**
+     * Queues the value for the key, replacing any value already queued for it.
+     *
+     * @return the replaced value, or {@code null} if the key was not queued
+     */
+    public V offer(K key, V value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        lock.lock();
+        try {
+            V replaced = entries.put(key, value);
+            if (replaced == null) {
+                notEmpty.signal();
+            }
+            return replaced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the oldest queued value, waiting up to the given time for one to be offered.
+     *
+     * @return the value, or {@code null} if the queue is still empty after the timeout
+     */
+    public V poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (entries.isEmpty()) {
+                if (nanos <= 0L) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+            V value = it.next().getValue();
+            it.remove();
+            removed.signalAll();
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean containsKey(K key) {
+        lock.lock();
+        try {
+            return entries.containsKey(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the oldest queued value matching the filter.
+     *
+     * @return the removed value, or {@code null} if none matches
+     */
+    public V removeFirst(Predicate<V> filter) {
+        lock.lock();
+        try {
+            Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                V value = it.next().getValue();
+                if (filter.test(value)) {
+                    it.remove();
+                    removed.signalAll();
+                    return value;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to the given time for the queue to hold fewer than {@code size} values.
+     *
+     * @return true if it does
+     */
+    public boolean awaitSizeBelow(int size, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (entries.size() >= size) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = removed.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -2,7 +2,6 @@ package org.opennms.plugins.servicenow;
 
 import kotlin.Pair;
 import org.opennms.integration.api.v1.dao.EdgeDao;
-import org.opennms.integration.api.v1.dao.InterfaceToNodeCache;
 import org.opennms.integration.api.v1.dao.NodeDao;
 import org.opennms.integration.api.v1.model.MetaData;
 import org.opennms.integration.api.v1.model.Node;
@@ -13,20 +12,28 @@ import org.opennms.integration.api.v1.model.TopologySegment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class EdgeService implements Runnable {
@@ -47,10 +54,15 @@ public class EdgeService implements Runnable {
     }
 
     protected class EdgeServiceVisitor implements TopologyEdge.EndpointVisitor {
-        String source;
-        String target;
+        private final NodeIndex index;
+        Node source;
+        Node target;
         String id;
 
+        protected EdgeServiceVisitor(NodeIndex index) {
+            this.index = index;
+        }
+
         public void setId(String id) {
             this.id = id;
         }
@@ -58,26 +70,26 @@ public class EdgeService implements Runnable {
         @Override
         public void visitSource(Node node) {
             LOG.debug("->{}:visitSourceNode {}",id, node);
-            source = nodeDao.getNodeByForeignSourceAndForeignId(node.getForeignSource(), node.getForeignId()).getLabel();
+            source = getNode(node.getForeignSource(), node.getForeignId());
         }
 
         @Override
         public void visitTarget(Node node) {
             LOG.debug("->{}:visitTarget:Node {}",id, node);
-            target = nodeDao.getNodeByForeignSourceAndForeignId(node.getForeignSource(), node.getForeignId()).getLabel();
+            target = getNode(node.getForeignSource(), node.getForeignId());
         }
 
         @Override
         public void visitSource(TopologyPort port) {
             LOG.debug("->{}:visitSource:TopologyPort {}",id, port);
-            source = nodeDao.getNodeByForeignSourceAndForeignId(port.getNodeCriteria().getForeignSource(),port.getNodeCriteria().getForeignId()).getLabel();
+            source = getNode(port.getNodeCriteria().getForeignSource(),port.getNodeCriteria().getForeignId());
         }
 
 
         @Override
         public void visitTarget(TopologyPort port) {
             LOG.debug("->{}:visitTarget:TopologyPort {}",id, port);
-            target = nodeDao.getNodeByForeignSourceAndForeignId(port.getNodeCriteria().getForeignSource(),port.getNodeCriteria().getForeignId()).getLabel();
+            target = getNode(port.getNodeCriteria().getForeignSource(),port.getNodeCriteria().getForeignId());
         }
 
         @Override
@@ -85,14 +97,33 @@ public class EdgeService implements Runnable {
             LOG.debug("->{}:visitTarget:TopologySegment:Criteria-> {}",id, segment.getSegmentCriteria());
             try {
                 Pair<Integer, Integer> pair = EdgeService.getFromId(id);
-                source = nodeDao.getNodeById(pair.getFirst()).getLabel();
-                target = nodeDao.getNodeById(pair.getSecond()).getLabel();
+                source = getNode(pair.getFirst());
+                target = getNode(pair.getSecond());
             } catch (Exception e) {
                 LOG.debug("->{}:visitTarget:TopologySegment: {}", id, e.getMessage());
             }
 
         }
 
+        private Node getNode(String foreignSource, String foreignId) {
+            Node node = index.getByForeignSourceAndForeignId(foreignSource, foreignId);
+            if (node == null) {
+                // added after the node snapshot was taken
+                LOG.debug("->{}:getNode: {}:{} not in node snapshot", id, foreignSource, foreignId);
+                node = nodeDao.getNodeByForeignSourceAndForeignId(foreignSource, foreignId);
+            }
+            return node;
+        }
+
+        private Node getNode(Integer nodeId) {
+            Node node = index.getById(nodeId);
+            if (node == null) {
+                LOG.debug("->{}:getNode: {} not in node snapshot", id, nodeId);
+                node = nodeDao.getNodeById(nodeId);
+            }
+            return node;
+        }
+
         public void clean() {
             source=null;
             target=null;
@@ -103,69 +134,134 @@ public class EdgeService implements Runnable {
 
     private final CountDownLatch firstRunLatch = new CountDownLatch(1);
 
-    private final Set<String> locations = Collections.synchronizedSet(new HashSet<>());
+    // all the state derived by the last refresh, replaced as a whole
+    private volatile TopologySnapshot snapshot = TopologySnapshot.EMPTY;
+
+    /**
+     * Notified on the refresh thread after a refresh changed the parent of some nodes.
+     * Listeners must return quickly and hand any slow work to a thread of their own.
+     */
+    public interface ParentChangeListener {
+        void onParentsChanged(long generation, List<ParentChange> changes);
+    }
+
+    private final List<ParentChangeListener> parentChangeListeners = new CopyOnWriteArrayList<>();
+
+    // protocols in priority order: a parent found by an earlier protocol wins
+    private static final List<TopologyProtocol> PROTOCOLS = List.of(TopologyProtocol.LLDP, TopologyProtocol.CDP, TopologyProtocol.BRIDGE);
+
+    private static final Pattern IPV4_LITERAL = Pattern.compile("(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}");
+    private static final Pattern IPV6_LITERAL = Pattern.compile("[0-9a-fA-F:.]*:[0-9a-fA-F:.]*");
+
+    private record ProtocolRun(TopologyProtocol protocol,
+                               TopologyGraph graph,
+                               int edges,
+                               long fetchMs,
+                               long buildMs,
+                               Map<String, String> parents,
+                               long discoveryMs) {
+    }
+
+    // one thread per protocol pipeline
+    private final ExecutorService discoveryPool = Executors.newFixedThreadPool(PROTOCOLS.size(), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
 
-    private final Map<String, Set<String>> gatewayToChildMap = new ConcurrentHashMap<>();
-    private final Map<String,String> gatewayToGatewayLabelMap = new ConcurrentHashMap<>();
-    private final Map<TopologyProtocol, Map<String,Set<String>>> edgeMap = new ConcurrentHashMap<>();
-    private volatile Map<String, String> parentByGatewayKeyMap;
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "edge-service-discovery-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     private static final Logger LOG = LoggerFactory.getLogger(EdgeService.class);
     private final NodeDao nodeDao;
     private final EdgeDao edgeDao;
-    private final InterfaceToNodeCache interfaceToNodeCache;
     private final String context;
     private final String parentKey;
     private final String gatewayKey;
     private final String excludedForeignSource;
 
-    private List<Node> nodes = new ArrayList<>();
     private final Integer maxIteration;
+    private final TopologySnapshotStore store;
 
     public void init() {
-        parentByGatewayKeyMap = new ConcurrentHashMap<>();
-        LOG.debug("init: parentMap initialized: {}", this.parentByGatewayKeyMap != null);
-        LOG.debug("init: parentMap size: {}", this.parentByGatewayKeyMap.size());
-        LOG.debug("init: parentMap class: {}", this.parentByGatewayKeyMap.getClass().getName());
+        if (store != null) {
+            // serve the parents of the last refresh before the restart until the first refresh completes
+            store.load().ifPresent(restored -> {
+                this.snapshot = restored;
+                firstRunLatch.countDown();
+            });
+        }
+        LOG.debug("init: snapshot generation: {}, restored: {}", this.snapshot.getGeneration(), this.snapshot.isRestored());
         LOG.debug("init: this reference: {}", this);
     }
 
 
+    public void destroy() {
+        discoveryPool.shutdownNow();
+    }
+
     public EdgeService(final EdgeDao edgeDao,
                        final NodeDao nodeDao,
-                       final InterfaceToNodeCache interfaceToNodeCache,
                        final String maxIteration,
                        final String context,
                        final String parentKey,
                        final String gatewayKey,
                        final String excludedForeignSource) {
+        this(edgeDao, nodeDao, maxIteration, context, parentKey, gatewayKey, excludedForeignSource, null);
+    }
+
+    /**
+     * @param cacheFilePrefix the prefix of the file the topology is saved to after every refresh
+     */
+    public EdgeService(final EdgeDao edgeDao,
+                       final NodeDao nodeDao,
+                       final String maxIteration,
+                       final String context,
+                       final String parentKey,
+                       final String gatewayKey,
+                       final String excludedForeignSource,
+                       final String cacheFilePrefix) {
 
         this.edgeDao = Objects.requireNonNull(edgeDao);
         this.nodeDao = Objects.requireNonNull(nodeDao);
-        this.interfaceToNodeCache = Objects.requireNonNull(interfaceToNodeCache);
         this.context = Objects.requireNonNull(context);
         this.parentKey = Objects.requireNonNull(parentKey);
         this.gatewayKey = Objects.requireNonNull(gatewayKey);
         this.maxIteration = Objects.requireNonNull(Integer.valueOf(maxIteration));
         this.excludedForeignSource = Objects.requireNonNull(excludedForeignSource);
+        this.store = cacheFilePrefix == null ? null : new TopologySnapshotStore(cacheFilePrefix);
+    }
+    public void addParentChangeListener(ParentChangeListener listener) {
+        parentChangeListeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeParentChangeListener(ParentChangeListener listener) {
+        parentChangeListeners.remove(listener);
     }
+
+    /**
+     * @return the state published by the last refresh
+     */
+    public TopologySnapshot getSnapshot() {
+        return snapshot;
+    }
+
     public Set<String> getLocations() {
-        return new HashSet<>(this.locations);
+        return snapshot.getLocations();
     }
 
     public Set<String> getEdges(TopologyProtocol protocol, String label) {
-        if (edgeMap.get(protocol).containsKey(label)) {
-            return new HashSet<>(edgeMap.get(protocol).get(label));
-        }
-        return new HashSet<>();
+        return snapshot.getGraph(protocol).getNeighborLabels(label);
     }
 
     public Set<String> getGateways() {
-        return new HashSet<>(gatewayToChildMap.keySet());
+        return snapshot.getGatewayToChildMap().keySet();
     }
 
     public Map<String, String> getParentByGatewayKeyMap() {
-        return parentByGatewayKeyMap;
+        return snapshot.getParentByGatewayKeyMap();
     }
 
     private String getParentByParentKey(Node node) {
@@ -179,29 +275,65 @@ public class EdgeService implements Runnable {
         return null;
     }
 
-    private String getParentByGatewayKey(Node node) {
-        if (this.parentByGatewayKeyMap.containsKey(node.getLabel())) {
-            LOG.debug("getParentByGatewayKey: found parent: {}, for node: {}", this.parentByGatewayKeyMap.get(node.getLabel()), node.getLabel() );
-            return this.parentByGatewayKeyMap.get(node.getLabel());
+    private String getParentByGatewayKey(Node node, Map<String, String> parentByGatewayKeyMap) {
+        String parent = parentByGatewayKeyMap.get(node.getLabel());
+        if (parent != null) {
+            LOG.debug("getParentByGatewayKey: found parent: {}, for node: {}", parent, node.getLabel() );
+            return parent;
         }
         LOG.debug("getParentByGatewayKey: no parent found: for node: {}", node.getLabel() );
         return "NoParentNodeFound";
     }
 
+    /**
+     * @return the parent label of the node as resolved by the last refresh
+     */
     public String getParent(int nodeId) {
-        return getParent(nodeDao.getNodeById(nodeId));
+        final TopologySnapshot current = this.snapshot;
+        String parent = current.getParentIndex().get(nodeId);
+        if (parent != null) {
+            return parent;
+        }
+        // added after the last refresh
+        Node node = nodeDao.getNodeById(nodeId);
+        if (node == null) {
+            LOG.debug("getParent: no node with id: {}", nodeId);
+            return "NoParentNodeFound";
+        }
+        return resolveParent(node, current.getParentByGatewayKeyMap());
     }
 
+    /**
+     * @return the parent label of the node as resolved by the last refresh
+     */
     public String getParent(final Node node) {
+        final TopologySnapshot current = this.snapshot;
+        String parent = current.getParentIndex().get(node.getId());
+        if (parent != null) {
+            return parent;
+        }
+        // added after the last refresh
+        return resolveParent(node, current.getParentByGatewayKeyMap());
+    }
+
+    // the parent metadata of the node overrides the discovered parent
+    private String resolveParent(final Node node, Map<String, String> parentByGatewayKeyMap) {
         String parent = getParentByParentKey(node);
         if (parent == null) {
-            parent = getParentByGatewayKey(node);
+            parent = getParentByGatewayKey(node, parentByGatewayKeyMap);
         }
         return parent;
     }
 
+    private ParentIndex populateParentIndex(List<Node> nodes, Map<String, String> parentByGatewayKeyMap) {
+        final ParentIndex.Builder builder = new ParentIndex.Builder();
+        nodes.forEach(node -> builder.put(node.getId(), resolveParent(node, parentByGatewayKeyMap)));
+        return builder.build();
+    }
 
-    public Map<String, Set<String>> populateGatewayLabelToSetLabelMap() {
+
+    public Map<String, Set<String>> populateGatewayLabelToSetLabelMap(Map<String, Set<String>> gatewayToChildMap,
+                                                                      Map<String, String> gatewayToGatewayLabelMap) {
         final Map<String, Set<String>> map = new HashMap<>();
         for (Map.Entry<String,Set<String>> entry: gatewayToChildMap.entrySet()) {
             if (gatewayToGatewayLabelMap.containsKey(entry.getKey())) {
@@ -212,7 +344,7 @@ public class EdgeService implements Runnable {
     }
 
     public List<Node> getNodes() {
-        return this.nodes;
+        return snapshot.getNodes();
     }
 
     public boolean awaitFirstRun(long timeout, TimeUnit unit) throws InterruptedException {
@@ -221,82 +353,165 @@ public class EdgeService implements Runnable {
 
     @Override
     public void run() {
-        LOG.info("run: calling");
+        refresh(false);
+    }
+
+    /**
+     * Refreshes the topology, searching again only the gateways whose children changed or that are near a
+     * link added or removed since the last refresh. Falls back to a full refresh when there is none.
+     */
+    public void runIncremental() {
+        refresh(true);
+    }
+
+    // refreshes are serialized, so that each one starts from the snapshot published by the previous one
+    private synchronized void refresh(boolean incremental) {
+        LOG.info("run: calling, incremental: {}", incremental);
+        final long start = System.nanoTime();
+        final TopologySnapshot previous = this.snapshot;
+        final Map<TopologyProtocol, CompletableFuture<ProtocolRun>> pipelines = new LinkedHashMap<>();
         try {
-            this.nodes.clear();
-            this.nodes = nodeDao.getNodes();
+            final List<Node> nodes = nodeDao.getNodes();
             LOG.info("run: nodes size: {}", nodes.size());
-            this.gatewayToChildMap.clear();
-            this.gatewayToChildMap.putAll(populateGatewayMap(nodes));
+            NodeIndex nodeIndex = new NodeIndex(nodes);
+            // fetch the edges and build the graphs while the gateways are resolved
+            for (TopologyProtocol protocol : PROTOCOLS) {
+                pipelines.put(protocol, CompletableFuture.supplyAsync(() -> buildGraph(protocol, nodeIndex), discoveryPool));
+            }
+            final Map<String, Set<String>> gatewayToChildMap = populateGatewayMap(nodes);
             LOG.debug("run: gatewayToChildMap size: {}", gatewayToChildMap.size());
 
-            locations.clear();
-            locations.addAll(populateLocations(nodes));
+            final Set<String> locations = populateLocations(nodes);
             LOG.debug("run: locations size: {}", locations.size());
 
-            gatewayToGatewayLabelMap.clear();
-            gatewayToGatewayLabelMap.putAll(populateGatewayToGatewayLabelMap(this.locations, new HashSet<>(gatewayToChildMap.keySet())));
+            final Map<String, String> gatewayToGatewayLabelMap = populateGatewayToGatewayLabelMap(nodeIndex, gatewayToChildMap.keySet());
             LOG.debug("run: gatewayToGatewayLabelMap: {}", gatewayToGatewayLabelMap.size());
 
-            Map<String, Set<String>> gatewayMap = populateGatewayLabelToSetLabelMap();
+            final Map<String, Set<String>> gatewayMap = populateGatewayLabelToSetLabelMap(gatewayToChildMap, gatewayToGatewayLabelMap);
             LOG.debug("run: gatewayMap size: {}", gatewayMap.size());
 
-            //LLDP
-            Set<TopologyEdge> lldpEdges = edgeDao.getEdges(TopologyProtocol.LLDP);
-            LOG.debug("run: lldpEdges size: {}", lldpEdges.size());
-            Map<String, Set<String>> lldpEdgeMap = populateEdgeMap(lldpEdges);
-            LOG.debug("run: lldpEdgeMap size: {}", lldpEdgeMap.size());
-            edgeMap.remove(TopologyProtocol.LLDP);
-            edgeMap.put(TopologyProtocol.LLDP, lldpEdgeMap);
-            Map<String, String> lldpParentMap =
-                    runDiscovery(
-                        lldpEdgeMap,
-                        gatewayMap
-                    );
-            LOG.debug("run: found lldp parent map of size: {}", lldpParentMap.size());
-
-            //CDP
-            Set<TopologyEdge> cdpEdges = edgeDao.getEdges(TopologyProtocol.CDP);
-            LOG.debug("run: cdpEdges size: {}", cdpEdges.size());
-            Map<String, Set<String>> cdpEdgeMap = populateEdgeMap(cdpEdges);
-            LOG.debug("run:cdpEdgeMap size: {}", lldpEdgeMap.size());
-            edgeMap.remove(TopologyProtocol.CDP);
-            edgeMap.put(TopologyProtocol.CDP, cdpEdgeMap);
-            Map<String, String> cdpParentMap =
-                    runDiscovery(
-                            cdpEdgeMap,
-                            gatewayMap
-                    );
-            LOG.debug("run: found cdp parent map of size: {}", cdpParentMap.size());
-
-            //BRIDGE
-            Set<TopologyEdge> bridgeEdges = edgeDao.getEdges(TopologyProtocol.BRIDGE);
-            LOG.debug("run: bridgeEdges size: {}", lldpEdges.size());
-            Map<String, Set<String>> bridgeEdgeMap = populateEdgeMap(bridgeEdges);
-            LOG.debug("run: bridgeEdgeMap size: {}", bridgeEdgeMap.size());
-            edgeMap.remove(TopologyProtocol.BRIDGE);
-            edgeMap.put(TopologyProtocol.BRIDGE, bridgeEdgeMap);
-            Map<String, String> bridgeParentMap =
-                    runDiscovery(
-                            bridgeEdgeMap,
-                            gatewayMap
-                    );
-            LOG.debug("run: found bridge parent map of size: {}", bridgeParentMap.size());
-
-            this.parentByGatewayKeyMap.clear();
-            lldpParentMap.forEach((key, value) -> this.parentByGatewayKeyMap.putIfAbsent(key, value));
-            LOG.debug("run: added lldp: parentByGatewayMap {}", this.parentByGatewayKeyMap.size());
-            cdpParentMap.forEach((key, value) -> this.parentByGatewayKeyMap.putIfAbsent(key, value));
-            LOG.debug("run: added cdp: parentByGatewayMap {}", this.parentByGatewayKeyMap.size());
-            bridgeParentMap.forEach((key, value) -> this.parentByGatewayKeyMap.putIfAbsent(key, value));
-            LOG.debug("run: added bridge: parentByGatewayMap {}", this.parentByGatewayKeyMap.size());
-            gatewayMap.forEach((parent, set) -> set.forEach(label -> this.parentByGatewayKeyMap.putIfAbsent(label,parent)));
-            LOG.debug("run: added gateways: parentByGatewayMap {}", this.parentByGatewayKeyMap.size());
+            // the empty and the restored snapshots have no graphs to start from
+            final TopologySnapshot base = incremental && previous.getGeneration() > 0 && !previous.isRestored() ? previous : null;
+            pipelines.replaceAll((protocol, pipeline) -> pipeline.thenApplyAsync(r -> discover(r, gatewayMap, base), discoveryPool));
+            final List<ProtocolRun> runs = new ArrayList<>();
+            for (TopologyProtocol protocol : PROTOCOLS) {
+                runs.add(await(pipelines, protocol));
+            }
+
+            // merge in protocol priority order: the first protocol that found a parent wins
+            final Map<TopologyProtocol, TopologyGraph> graphs = new HashMap<>();
+            final Map<TopologyProtocol, Map<String, String>> parentsByProtocol = new HashMap<>();
+            final Map<String, String> parentByGatewayKeyMap = new HashMap<>();
+            for (ProtocolRun r : runs) {
+                graphs.put(r.protocol(), r.graph());
+                parentsByProtocol.put(r.protocol(), r.parents());
+                r.parents().forEach(parentByGatewayKeyMap::putIfAbsent);
+                LOG.debug("run: added {}: parentByGatewayMap {}", r.protocol(), parentByGatewayKeyMap.size());
+            }
+            gatewayMap.forEach((parent, set) -> set.forEach(label -> parentByGatewayKeyMap.putIfAbsent(label,parent)));
+            LOG.debug("run: added gateways: parentByGatewayMap {}", parentByGatewayKeyMap.size());
+
+            final ParentIndex parentIndex = populateParentIndex(nodes, parentByGatewayKeyMap);
+            LOG.debug("run: parentIndex size: {}", parentIndex.size());
+
+            this.snapshot = new TopologySnapshot(previous.getGeneration() + 1, nodes, locations, gatewayToChildMap,
+                    gatewayToGatewayLabelMap, gatewayMap, graphs, parentsByProtocol, parentByGatewayKeyMap, parentIndex);
+            LOG.info("run: topology generation {} refreshed in {} ms", snapshot.getGeneration(), millis(System.nanoTime() - start));
+            save(snapshot);
+            // before the first refresh there is nothing to compare with: every asset is sent by the asset forwarder
+            if (previous.getGeneration() > 0) {
+                publishParentChanges(snapshot.getGeneration(), parentIndex.changesFrom(previous.getParentIndex()));
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("run: interrupted, keeping topology generation {}", previous.getGeneration());
+            pipelines.values().forEach(pipeline -> pipeline.cancel(true));
+            Thread.currentThread().interrupt();
         } finally {
             firstRunLatch.countDown();
         }
     }
 
+    private void publishParentChanges(long generation, List<ParentChange> changes) {
+        LOG.info("run: topology generation {}: {} parents changed", generation, changes.size());
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (ParentChangeListener listener : parentChangeListeners) {
+            try {
+                listener.onParentsChanged(generation, changes);
+            } catch (RuntimeException e) {
+                LOG.error("run: parent change listener failed: {}", listener, e);
+            }
+        }
+    }
+
+    private void save(TopologySnapshot saved) {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.save(saved);
+        } catch (IOException e) {
+            LOG.warn("run: failed to save topology generation {}", saved.getGeneration(), e);
+        }
+    }
+
+    private ProtocolRun buildGraph(TopologyProtocol protocol, NodeIndex nodeIndex) {
+        long start = System.nanoTime();
+        Set<TopologyEdge> edges = edgeDao.getEdges(protocol);
+        long fetched = System.nanoTime();
+        LOG.debug("run: {} edges size: {}", protocol, edges.size());
+        TopologyGraph graph = populateGraph(edges, nodeIndex);
+        return new ProtocolRun(protocol, graph, edges.size(), millis(fetched - start), millis(System.nanoTime() - fetched), Map.of(), 0);
+    }
+
+    private ProtocolRun discover(ProtocolRun r, Map<String, Set<String>> gatewayMap, TopologySnapshot previous) {
+        long start = System.nanoTime();
+        Map<String, String> parents;
+        if (previous == null) {
+            parents = runDiscovery(r.graph(), gatewayMap);
+        } else {
+            parents = runIncrementalDiscovery(r.protocol(), previous.getGraph(r.protocol()), r.graph(),
+                    previous.getParents(r.protocol()), previous.getGatewayMap(), gatewayMap);
+        }
+        ProtocolRun done = new ProtocolRun(r.protocol(), r.graph(), r.edges(), r.fetchMs(), r.buildMs(), parents, millis(System.nanoTime() - start));
+        LOG.info("run: {}: {} edges fetched in {} ms, graph of {} nodes and {} links built in {} ms, {} parents found in {} ms",
+                done.protocol(), done.edges(), done.fetchMs(), done.graph().vertexCount(), done.graph().edgeCount(), done.buildMs(),
+                done.parents().size(), done.discoveryMs());
+        return done;
+    }
+
+    private Map<String, String> runIncrementalDiscovery(TopologyProtocol protocol,
+                                                        TopologyGraph previousGraph,
+                                                        TopologyGraph graph,
+                                                        Map<String, String> previousParents,
+                                                        Map<String, Set<String>> previousGatewayMap,
+                                                        Map<String, Set<String>> gatewayMap) {
+        Set<String> affected = ParentDiscovery.affectedGateways(previousGraph, graph, previousGatewayMap, gatewayMap, maxIteration);
+        if (affected.size() * 2 > gatewayMap.size()) {
+            LOG.info("run: {}: {} of {} gateways changed, searching all", protocol, affected.size(), gatewayMap.size());
+            return runDiscovery(graph, gatewayMap);
+        }
+        LOG.info("run: {}: {} of {} gateways changed", protocol, affected.size(), gatewayMap.size());
+        return ParentDiscovery.rediscover(graph, previousParents, previousGatewayMap, gatewayMap, affected, maxIteration);
+    }
+
+    private static ProtocolRun await(Map<TopologyProtocol, CompletableFuture<ProtocolRun>> pipelines, TopologyProtocol protocol) throws InterruptedException {
+        try {
+            return pipelines.get(protocol).get();
+        } catch (ExecutionException e) {
+            pipelines.values().forEach(pipeline -> pipeline.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(protocol + " discovery failed", e.getCause());
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
     public Set<String> populateLocations(List<Node> nodes) {
         return nodes.stream().map(Node::getLocation).collect(Collectors.toSet());
     }
@@ -319,62 +534,85 @@ public class EdgeService implements Runnable {
         return map;
     }
 
-    public Map<String, String> populateGatewayToGatewayLabelMap(Set<String> locations, Set<String> gateways) {
+    public Map<String, String> populateGatewayToGatewayLabelMap(NodeIndex nodeIndex, Set<String> gateways) {
         Map<String, String> map = new HashMap<>();
-  G:      for (String gateway: gateways) {
-            for (String location: locations) {
-                String gwLabel = findGatewayToGatewayLabel(location, gateway);
-                if (gwLabel != null) {
-                    map.put(gateway, gwLabel);
-                    LOG.debug("run: gateway: {}, -> label: {}", gateway, gwLabel);
-                    continue G;
-                }
+        for (String gateway: gateways) {
+            String gwLabel = findGatewayToGatewayLabel(nodeIndex, gateway);
+            if (gwLabel != null) {
+                map.put(gateway, gwLabel);
+                LOG.debug("run: gateway: {}, -> label: {}", gateway, gwLabel);
+            } else {
+                LOG.debug("run: gateway: {}, -> no node found", gateway);
             }
-            LOG.debug("run: gateway: {}, -> no node found", gateway);
         }
         return map;
     }
 
-    public String findGatewayToGatewayLabel(String onmsLocation, String gateway) {
-        LOG.debug("run: try to get label for gateway: {} and location: {}", gateway, onmsLocation);
-        InetAddress gwIp;
-        try {
-            gwIp = InetAddress.getByName(gateway);
-        } catch (UnknownHostException e) {
-            LOG.warn("run: error in gateway string: {}", gateway, e);
+    /**
+     * @return the label of the node with the lowest id that has an interface with the gateway address
+     * and is not in the excluded foreign source, or null when there is none
+     */
+    public String findGatewayToGatewayLabel(NodeIndex nodeIndex, String gateway) {
+        LOG.debug("run: try to get label for gateway: {}", gateway);
+        InetAddress gwIp = parseIpAddress(gateway);
+        if (gwIp == null) {
+            LOG.warn("run: error in gateway string, not an ip address: {}", gateway);
             return null;
         }
-
-        LOG.debug("run: try to get label for location: {}", onmsLocation );
-
-        Integer nodeId = interfaceToNodeCache.getFirstNodeId(onmsLocation, gwIp).orElse(-1);
-        if (nodeId > 0) {
-            Node node = nodeDao.getNodeById(nodeId);
-            LOG.debug("run: got Node: {}, FS {}", node.getLabel(), node.getForeignSource());
+        for (Node node : nodeIndex.getByIpAddress(gwIp)) {
             LOG.debug("run: checking FS {}: against excluded: {}", node.getForeignSource(), excludedForeignSource);
-            if (!node.getForeignSource().equals(excludedForeignSource)) {
+            if (!excludedForeignSource.equals(node.getForeignSource())) {
                 LOG.debug("run: mappingGatewayIpToGatewayNodeLabel adding: {}, {}", gateway, node.getLabel());
                 return node.getLabel();
             }
         }
-        LOG.debug("run: no valid NodeId {}, found for: {}: on location: {}", nodeId, gateway,onmsLocation );
+        LOG.debug("run: no valid node found for: {}", gateway);
         return null;
     }
 
+    /**
+     * Parses an IPv4 or IPv6 address literal. Host names are rejected rather than resolved,
+     * so that a malformed gateway never triggers a DNS lookup.
+     *
+     * @return the address, or null when the value is not an address literal
+     */
+    protected static InetAddress parseIpAddress(String value) {
+        if (value == null) {
+            return null;
+        }
+        String literal = value.trim();
+        if (!IPV4_LITERAL.matcher(literal).matches() && !IPV6_LITERAL.matcher(literal).matches()) {
+            return null;
+        }
+        try {
+            // an address literal is parsed, not resolved
+            return InetAddress.getByName(literal);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
     public Map<String, Set<String>> populateEdgeMap(Set<TopologyEdge> edges) {
-        EdgeService.EdgeServiceVisitor visitor = new EdgeServiceVisitor();
-        final Map<String, Set<String>> map = new HashMap<>();
+        return populateEdgeMap(edges, new NodeIndex(nodeDao.getNodes()));
+    }
+
+    public Map<String, Set<String>> populateEdgeMap(Set<TopologyEdge> edges, NodeIndex nodeIndex) {
+        return populateGraph(edges, nodeIndex).asLabelMap();
+    }
+
+    public TopologyGraph populateGraph(Set<TopologyEdge> edges, NodeIndex nodeIndex) {
+        EdgeService.EdgeServiceVisitor visitor = new EdgeServiceVisitor(nodeIndex);
+        final TopologyGraph.Builder builder = new TopologyGraph.Builder();
         edges.forEach(edge -> {
             visitor.clean();
             visitor.setId(edge.getId());
             edge.visitEndpoints(visitor);
 
             if (visitor.source != null && visitor.target != null) {
-                map.computeIfAbsent(visitor.source, k -> new HashSet<>()).add(visitor.target);
-                map.computeIfAbsent(visitor.target, k -> new HashSet<>()).add(visitor.source);
+                builder.addEdge(visitor.source.getId(), visitor.source.getLabel(), visitor.target.getId(), visitor.target.getLabel());
             }
         });
-        return map;
+        return builder.build();
     }
 
     protected Map<String,String> runDiscovery(
@@ -385,11 +623,24 @@ public class EdgeService implements Runnable {
             LOG.warn("run: edgeMap is null");
             return new HashMap<>();
         }
-        if (edgeMap.isEmpty()) {
-            LOG.warn("run: edgeMap is empty");
+        return runDiscovery(TopologyGraph.fromLabelMap(edgeMap), gatewayMap);
+    }
+
+    /**
+     * Assigns each child of every gateway the node linked to it that is closest to the gateway,
+     * in one pass over the graph (see {@link ParentDiscovery}).
+     *
+     * @return the parent label by child label
+     */
+    protected Map<String,String> runDiscovery(
+                final TopologyGraph graph,
+                final Map<String,Set<String>>gatewayMap
+            ) {
+        if (graph.vertexCount() == 0) {
+            LOG.warn("run: graph is empty");
             return new HashMap<>();
         }
-        LOG.debug("run: edgeMap: {}", edgeMap);
+        LOG.debug("run: graph vertices: {}, edges: {}", graph.vertexCount(), graph.edgeCount());
 
         if (gatewayMap == null) {
             LOG.warn("run: gatewayMap is null");
@@ -400,49 +651,7 @@ public class EdgeService implements Runnable {
             return new HashMap<>();
         }
 
-        final Map<String,String> map = new HashMap<>();
-
-        for (String gateway: gatewayMap.keySet()) {
-            if (!edgeMap.containsKey(gateway)) {
-                LOG.debug("run: no edges for gateway: {}", gateway);
-                continue;
-            }
-            Set<String> children = gatewayMap.get(gateway);
-            LOG.debug("run: parsing {}: with children: {}", gateway, children);
-            int i=0;
-            Set<String> parents = new HashSet<>(List.of(gateway));
-            final Set<String> parsed = new HashSet<>();
-            while (!parents.isEmpty() && !children.isEmpty()  && i< maxIteration) {
-                LOG.debug("run: iteration {}: checking if children of: {}", i,parents);
-                parents = checkParent(parsed, map, edgeMap, children, parents);
-                i++;
-            }
-        }
-        return map;
-    }
-
-    private Set<String> checkParent(final Set<String> parsed, final Map<String, String> map, final Map<String,Set<String>>edgeMap , Set<String> children, Set<String> parents) {
-        final Set<String> downlevel = new HashSet<>();
-        parents
-                .forEach(level -> {
-                    parsed.add(level);
-                    LOG.debug("run: parsing: {}", level);
-                    if (edgeMap.containsKey(level)) {
-                        downlevel.addAll(edgeMap.get(level));
-                    }
-                    Set<String> levelEdges = new HashSet<>(edgeMap.get(level));
-                    levelEdges.retainAll(children);
-                    for (String child: levelEdges) {
-                        LOG.debug("run: {} found child: {}", level, child);
-                        map.put(child, level);
-                    }
-                    children.removeAll(levelEdges);
-                });
-        LOG.debug("run: parsed: {}", parsed);
-        LOG.debug("run: children: {}", children);
-        downlevel.removeAll(parsed);
-        LOG.debug("run: parents: {}", downlevel);
-        return downlevel;
+        return ParentDiscovery.discover(graph, gatewayMap, maxIteration);
     }
 
 }
@@ -0,0 +1,64 @@
+package org.opennms.plugins.servicenow;
+
+import org.opennms.integration.api.v1.model.IpInterface;
+import org.opennms.integration.api.v1.model.Node;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory lookup of a node snapshot by id, by foreign source and foreign id and by interface address,
+ * used to resolve topology endpoints and gateways without a {@code NodeDao} round trip each.
+ */
+public class NodeIndex {
+
+    private final Map<Integer, Node> byId;
+    private final Map<String, Node> byForeignId;
+    private final Map<InetAddress, List<Node>> byIpAddress;
+
+    public NodeIndex(Collection<Node> nodes) {
+        this.byId = new HashMap<>(nodes.size() * 2);
+        this.byForeignId = new HashMap<>(nodes.size() * 2);
+        this.byIpAddress = new HashMap<>(nodes.size() * 2);
+        for (Node node : nodes) {
+            byId.put(node.getId(), node);
+            if (node.getForeignSource() != null && node.getForeignId() != null) {
+                byForeignId.put(key(node.getForeignSource(), node.getForeignId()), node);
+            }
+            for (IpInterface ipInterface : node.getIpInterfaces()) {
+                if (ipInterface.getIpAddress() != null) {
+                    byIpAddress.computeIfAbsent(ipInterface.getIpAddress(), k -> new ArrayList<>(1)).add(node);
+                }
+            }
+        }
+        byIpAddress.values().forEach(list -> list.sort(Comparator.comparing(Node::getId)));
+    }
+
+    private static String key(String foreignSource, String foreignId) {
+        return foreignSource + ":" + foreignId;
+    }
+
+    public Node getById(Integer id) {
+        return byId.get(id);
+    }
+
+    public Node getByForeignSourceAndForeignId(String foreignSource, String foreignId) {
+        return byForeignId.get(key(foreignSource, foreignId));
+    }
+
+    /**
+     * @return the nodes with an interface with the address, in ascending id order
+     */
+    public List<Node> getByIpAddress(InetAddress ipAddress) {
+        return byIpAddress.getOrDefault(ipAddress, List.of());
+    }
+
+    public int size() {
+        return byId.size();
+    }
+}
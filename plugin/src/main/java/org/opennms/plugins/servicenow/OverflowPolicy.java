@@ -0,0 +1,29 @@
+package org.opennms.plugins.servicenow;
+
+import java.util.Locale;
+
+/**
+ * What a sender does with a new element when its queue holds {@code capacity} elements.
+ */
+public enum OverflowPolicy {
+    /** the producer waits for room up to {@code send.timeout}, then the new element is dropped */
+    BLOCK,
+    /** the oldest queued element that is not critical is dropped, or the new one when it is the least important */
+    DROP_OLDEST_NON_CRITICAL,
+    /** alarms only: queued clears of alarms whose down never reached ServiceNow are dropped first */
+    DROP_CLEARS_FOR_MISSING_DOWNS,
+    /** alarms only: the new alert is kept in the alarm spool alone and queued again once there is room */
+    SPILL_TO_DISK;
+
+    /**
+     * Parses a policy name, case-insensitive, with either dashes or underscores: {@code drop-oldest-non-critical}.
+     */
+    public static OverflowPolicy parse(String value) {
+        return OverflowPolicy.valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+}
@@ -0,0 +1,11 @@
+package org.opennms.plugins.servicenow;
+
+/**
+ * The parent of a node found by a topology refresh differs from the one found by the previous refresh.
+ *
+ * @param nodeId the id of the node
+ * @param oldParent the previous parent label, null for a node the previous refresh did not know
+ * @param newParent the new parent label
+ */
+public record ParentChange(int nodeId, String oldParent, String newParent) {
+}
@@ -0,0 +1,235 @@
+package org.opennms.plugins.servicenow;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the parent of the children of every gateway in a {@link TopologyGraph}.
+ * <p>
+ * The parent of a child is the node linked to it that is closest to the child's gateway, at most
+ * {@code maxIteration} hops away from it. All gateways are walked in a single level by level
+ * breadth first pass: the frontier holds (gateway, node) pairs, so each node is expanded at most once
+ * per gateway, and a gateway stops expanding as soon as all its children have a parent.
+ * Among nodes at the same distance the one reached first wins, so the result does not depend on hash order.
+ */
+final class ParentDiscovery {
+    private static final Logger LOG = LoggerFactory.getLogger(ParentDiscovery.class);
+
+    private ParentDiscovery() {
+    }
+
+    /**
+     * @param graph the topology of one protocol
+     * @param gatewayMap the child labels by gateway label
+     * @param maxIteration the maximum number of levels walked from a gateway
+     * @return the parent label by child label
+     */
+    static Map<String, String> discover(TopologyGraph graph, Map<String, Set<String>> gatewayMap, int maxIteration) {
+        final Map<String, String> map = new HashMap<>();
+        final int n = graph.vertexCount();
+        // owner[v]: index + 1 of the gateway v is a child of and has no parent yet, 0 for none
+        final int[] owner = new int[n];
+        final int[] remaining = new int[gatewayMap.size()];
+        final String[] gateways = new String[gatewayMap.size()];
+
+        Frontier frontier = new Frontier();
+        final VisitedSet visited = new VisitedSet();
+        int g = 0;
+        for (Map.Entry<String, Set<String>> entry : gatewayMap.entrySet()) {
+            int gateway = graph.vertexOf(entry.getKey());
+            if (gateway < 0) {
+                LOG.debug("discover: no edges for gateway: {}", entry.getKey());
+                continue;
+            }
+            gateways[g] = entry.getKey();
+            for (String label : entry.getValue()) {
+                int v = graph.vertexOf(label);
+                if (v < 0) {
+                    continue;
+                }
+                if (owner[v] != 0) {
+                    LOG.debug("discover: {} is a child of {}, ignoring gateway: {}", label, gateways[owner[v] - 1], entry.getKey());
+                    continue;
+                }
+                owner[v] = g + 1;
+                remaining[g]++;
+            }
+            LOG.debug("discover: parsing {}: with children: {}", entry.getKey(), remaining[g]);
+            if (remaining[g] > 0) {
+                visited.add(g, gateway);
+                frontier.add(g, gateway);
+            }
+            g++;
+        }
+
+        Frontier next = new Frontier();
+        for (int level = 0; frontier.size > 0 && level < maxIteration; level++) {
+            next.size = 0;
+            for (int f = 0; f < frontier.size; f++) {
+                int gw = frontier.gateways[f];
+                if (remaining[gw] == 0) {
+                    continue;
+                }
+                int parent = frontier.vertices[f];
+                for (int e = 0; e < graph.degree(parent); e++) {
+                    int v = graph.neighbor(parent, e);
+                    if (owner[v] == gw + 1) {
+                        LOG.debug("discover: {} found child: {}", graph.label(parent), graph.label(v));
+                        map.put(graph.label(v), graph.label(parent));
+                        owner[v] = 0;
+                        remaining[gw]--;
+                    }
+                    if (visited.add(gw, v)) {
+                        next.add(gw, v);
+                    }
+                }
+            }
+            Frontier swap = frontier;
+            frontier = next;
+            next = swap;
+        }
+        return map;
+    }
+
+    /**
+     * A gateway search reads the links of the nodes less than {@code maxIteration} hops away from the gateway,
+     * so its result can only change when its children changed or when a node that close to it gained or lost
+     * a link, in the previous or in the new graph.
+     *
+     * @return the labels of the gateways to search again
+     */
+    static Set<String> affectedGateways(TopologyGraph previousGraph,
+                                        TopologyGraph graph,
+                                        Map<String, Set<String>> previousGatewayMap,
+                                        Map<String, Set<String>> gatewayMap,
+                                        int maxIteration) {
+        final Set<String> affected = new HashSet<>();
+        previousGatewayMap.forEach((gateway, children) -> {
+            if (!children.equals(gatewayMap.get(gateway))) {
+                affected.add(gateway);
+            }
+        });
+        gatewayMap.forEach((gateway, children) -> {
+            if (!children.equals(previousGatewayMap.get(gateway))) {
+                affected.add(gateway);
+            }
+        });
+        int[] changed = graph.changedNodeIds(previousGraph);
+        if (changed.length == 0 || maxIteration < 1) {
+            return affected;
+        }
+        BitSet previousReached = previousGraph.reachedFrom(changed, maxIteration - 1);
+        BitSet reached = graph.reachedFrom(changed, maxIteration - 1);
+        for (String gateway : gatewayMap.keySet()) {
+            int v = graph.vertexOf(gateway);
+            int w = previousGraph.vertexOf(gateway);
+            if ((v >= 0 && reached.get(v)) || (w >= 0 && previousReached.get(w))) {
+                affected.add(gateway);
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Updates the parents found by a previous search, searching again only the affected gateways.
+     *
+     * @param previousParents the parent label by child label found with the previous gateway map
+     * @param affected the gateways to search again, as returned by {@link #affectedGateways}
+     * @return the parent label by child label
+     */
+    static Map<String, String> rediscover(TopologyGraph graph,
+                                          Map<String, String> previousParents,
+                                          Map<String, Set<String>> previousGatewayMap,
+                                          Map<String, Set<String>> gatewayMap,
+                                          Set<String> affected,
+                                          int maxIteration) {
+        final Map<String, String> map = new HashMap<>(previousParents);
+        final Map<String, Set<String>> affectedGatewayMap = new HashMap<>();
+        for (String gateway : affected) {
+            previousGatewayMap.getOrDefault(gateway, Set.of()).forEach(map::remove);
+            if (gatewayMap.containsKey(gateway)) {
+                gatewayMap.get(gateway).forEach(map::remove);
+                affectedGatewayMap.put(gateway, gatewayMap.get(gateway));
+            }
+        }
+        if (!affectedGatewayMap.isEmpty()) {
+            map.putAll(discover(graph, affectedGatewayMap, maxIteration));
+        }
+        return map;
+    }
+
+    private static final class Frontier {
+        int[] gateways = new int[64];
+        int[] vertices = new int[64];
+        int size = 0;
+
+        void add(int gateway, int vertex) {
+            if (size == vertices.length) {
+                gateways = Arrays.copyOf(gateways, size * 2);
+                vertices = Arrays.copyOf(vertices, size * 2);
+            }
+            gateways[size] = gateway;
+            vertices[size] = vertex;
+            size++;
+        }
+    }
+
+    /**
+     * Open addressing set of (gateway, vertex) pairs packed in a long.
+     */
+    private static final class VisitedSet {
+        private static final long FREE = -1L;
+        private long[] keys = newTable(1024);
+        private int size = 0;
+
+        private static long[] newTable(int capacity) {
+            long[] table = new long[capacity];
+            Arrays.fill(table, FREE);
+            return table;
+        }
+
+        boolean add(int gateway, int vertex) {
+            if (2 * (size + 1) > keys.length) {
+                long[] old = keys;
+                keys = newTable(old.length * 2);
+                for (long key : old) {
+                    if (key != FREE) {
+                        insert(key);
+                    }
+                }
+            }
+            if (insert(((long) gateway << 32) | vertex)) {
+                size++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean insert(long key) {
+            int mask = keys.length - 1;
+            int i = (int) (mix(key) & mask);
+            while (keys[i] != FREE) {
+                if (keys[i] == key) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            return true;
+        }
+
+        private static long mix(long key) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            return key;
+        }
+    }
+}
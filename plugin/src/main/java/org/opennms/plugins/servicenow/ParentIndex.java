@@ -0,0 +1,119 @@
+package org.opennms.plugins.servicenow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable parent label by node id, with open addressing on a primitive key table so that a lookup
+ * neither boxes the id nor walks the node metadata.
+ */
+public final class ParentIndex {
+
+    public static final ParentIndex EMPTY = new Builder().build();
+
+    private static final int FREE = 0;
+
+    private final int[] keys;
+    private final String[] values;
+    private final int size;
+
+    private ParentIndex(int[] keys, String[] values, int size) {
+        this.keys = keys;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * @return the parent label of the node, or null when the node was not indexed
+     */
+    public String get(int nodeId) {
+        if (nodeId == FREE) {
+            return null;
+        }
+        int mask = keys.length - 1;
+        for (int i = mix(nodeId) & mask; keys[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == nodeId) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the ids of the indexed nodes, in ascending order
+     */
+    public int[] nodeIds() {
+        return Arrays.stream(keys).filter(key -> key != FREE).sorted().toArray();
+    }
+
+    /**
+     * @return the nodes of this index whose parent differs from the one in the previous index, in ascending id order;
+     * nodes only in the previous index are not reported
+     */
+    public List<ParentChange> changesFrom(ParentIndex previous) {
+        final List<ParentChange> changes = new ArrayList<>();
+        for (int nodeId : nodeIds()) {
+            String oldParent = previous.get(nodeId);
+            String newParent = get(nodeId);
+            if (!Objects.equals(oldParent, newParent)) {
+                changes.add(new ParentChange(nodeId, oldParent, newParent));
+            }
+        }
+        return changes;
+    }
+
+    private static int mix(int key) {
+        key *= 0x9e3779b9;
+        return key ^ (key >>> 16);
+    }
+
+    public static class Builder {
+        private int[] ids = new int[64];
+        private String[] parents = new String[64];
+        private int size = 0;
+
+        /**
+         * Node ids are positive, the last parent put for an id wins.
+         */
+        public Builder put(int nodeId, String parent) {
+            if (nodeId == FREE) {
+                throw new IllegalArgumentException("invalid node id: " + nodeId);
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                parents = Arrays.copyOf(parents, size * 2);
+            }
+            ids[size] = nodeId;
+            parents[size] = parent;
+            size++;
+            return this;
+        }
+
+        public ParentIndex build() {
+            // at most half full
+            int capacity = Integer.highestOneBit(Math.max(size, 1) * 2) * 2;
+            int[] keys = new int[capacity];
+            String[] values = new String[capacity];
+            int mask = capacity - 1;
+            int count = 0;
+            for (int n = 0; n < size; n++) {
+                int i = mix(ids[n]) & mask;
+                while (keys[i] != FREE && keys[i] != ids[n]) {
+                    i = (i + 1) & mask;
+                }
+                if (keys[i] == FREE) {
+                    keys[i] = ids[n];
+                    count++;
+                }
+                values[i] = parents[n];
+            }
+            return new ParentIndex(keys, values, count);
+        }
+    }
+}
@@ -14,6 +14,8 @@ public class PluginEventForwarder {
     public static final String SEND_EVENT_SUCCESSFUL_UEI = UEI_PREFIX + "/sendEventSuccessful";
     public static final String SEND_ASSET_FAILED_UEI = UEI_PREFIX + "/sendAssetFailed";
     public static final String SEND_ASSET_SUCCESSFUL_UEI = UEI_PREFIX + "/sendAssetSuccessful";
+    public static final String SEND_EVENT_DROPPED_UEI = UEI_PREFIX + "/sendEventDropped";
+    public static final String SEND_ASSET_DROPPED_UEI = UEI_PREFIX + "/sendAssetDropped";
 
     private final EventForwarder eventForwarder;
 
@@ -49,6 +51,22 @@ public class PluginEventForwarder {
                 .build());
     }
 
+    public void sendAlarmDropped(int nodeId, String reductionKey, String message) {
+        eventForwarder.sendAsync(ImmutableInMemoryEvent.newBuilder()
+                .setUei(SEND_EVENT_DROPPED_UEI)
+                .setNodeId(nodeId)
+                .setSource(SOURCE)
+                .addParameter(ImmutableEventParameter.newBuilder()
+                        .setName("reductionKey")
+                        .setValue(reductionKey)
+                        .build())
+                .addParameter(ImmutableEventParameter.newBuilder()
+                        .setName("message")
+                        .setValue(message)
+                        .build())
+                .build());
+    }
+
     public void sendAssetSuccessful(int nodeId, String assetTag) {
         eventForwarder.sendAsync(ImmutableInMemoryEvent.newBuilder()
                 .setUei(SEND_ASSET_SUCCESSFUL_UEI)
@@ -118,4 +136,33 @@ public class PluginEventForwarder {
                         .setValue(assetTag).build())
                 .build());
     }
+
+    public void sendAssetDropped(int nodeId, String message, String assetTag) {
+        eventForwarder.sendAsync(ImmutableInMemoryEvent.newBuilder()
+                .setUei(SEND_ASSET_DROPPED_UEI)
+                .setNodeId(nodeId)
+                .setSource(SOURCE)
+                .addParameter(ImmutableEventParameter.newBuilder()
+                        .setName("message")
+                        .setValue(message)
+                        .build())
+                .addParameter(ImmutableEventParameter.newBuilder()
+                        .setName("assetTag")
+                        .setValue(assetTag).build())
+                .build());
+    }
+
+    public void sendAssetDropped(String message, String assetTag) {
+        eventForwarder.sendAsync(ImmutableInMemoryEvent.newBuilder()
+                .setUei(SEND_ASSET_DROPPED_UEI)
+                .setSource(SOURCE)
+                .addParameter(ImmutableEventParameter.newBuilder()
+                        .setName("message")
+                        .setValue(message)
+                        .build())
+                .addParameter(ImmutableEventParameter.newBuilder()
+                        .setName("assetTag")
+                        .setValue(assetTag).build())
+                .build());
+    }
 }
\ No newline at end of file
@@ -22,29 +22,38 @@ public class PluginScheduler implements HealthCheck {
     private final long initialDelayL;
     private final long delayL;
     private final long edgeDelayL;
+    private final long edgeIncrementalDelayL;
 
     private ScheduledExecutorService executor;
     private ScheduledFuture<?> edgeFuture;
+    private ScheduledFuture<?> edgeIncrementalFuture;
     private ScheduledFuture<?> assetFuture;
 
     public PluginScheduler(EdgeService edgeService,
                            AssetForwarder assetForwarder,
                            String initialDelay,
                            String delay,
-                           String edgeDelay) {
+                           String edgeDelay,
+                           String edgeIncrementalDelay) {
         this.edgeService = edgeService;
         this.assetForwarder = assetForwarder;
         this.initialDelayL = Long.parseLong(initialDelay);
         this.delayL = Long.parseLong(delay);
         this.edgeDelayL = Long.parseLong(edgeDelay);
+        this.edgeIncrementalDelayL = Long.parseLong(edgeIncrementalDelay);
     }
 
     public void init() {
-        LOG.info("PluginScheduler: starting scheduler with initialDelay={} assetDelay={} edgeDelay={}", initialDelayL, delayL, edgeDelayL);
+        LOG.info("PluginScheduler: starting scheduler with initialDelay={} assetDelay={} edgeDelay={} edgeIncrementalDelay={}",
+                initialDelayL, delayL, edgeDelayL, edgeIncrementalDelayL);
         executor = Executors.newScheduledThreadPool(1);
         // Run EdgeService immediately so topology is ready before the first alarm snapshot is processed
         executor.execute(edgeService);
         edgeFuture = executor.scheduleWithFixedDelay(edgeService, edgeDelayL, edgeDelayL, TimeUnit.MILLISECONDS);
+        // Incremental refreshes in between pick up topology changes, the full run above remains the safety net
+        if (edgeIncrementalDelayL > 0) {
+            edgeIncrementalFuture = executor.scheduleWithFixedDelay(edgeService::runIncremental, edgeIncrementalDelayL, edgeIncrementalDelayL, TimeUnit.MILLISECONDS);
+        }
         assetFuture = executor.scheduleWithFixedDelay(assetForwarder, 30*initialDelayL, delayL, TimeUnit.MILLISECONDS);
         LOG.info("PluginScheduler: scheduler started");
     }
@@ -54,6 +63,9 @@ public class PluginScheduler implements HealthCheck {
         if (edgeFuture != null) {
             edgeFuture.cancel(true);
         }
+        if (edgeIncrementalFuture != null) {
+            edgeIncrementalFuture.cancel(true);
+        }
         if (assetFuture != null) {
             assetFuture.cancel(true);
         }
@@ -70,6 +82,7 @@ public class PluginScheduler implements HealthCheck {
     @Override
     public Response perform(Context context) {
         boolean done = (edgeFuture != null && edgeFuture.isDone())
+                || (edgeIncrementalFuture != null && edgeIncrementalFuture.isDone())
                 || (assetFuture != null && assetFuture.isDone());
         return ImmutableResponse.newBuilder()
                 .setStatus(done ? Status.Failure : Status.Success)
@@ -0,0 +1,241 @@
+package org.opennms.plugins.servicenow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Queue with a fixed number of priority levels, level 0 first, handing out batches of elements of the same kind.
+ * <p>
+ * A batch is taken from the highest priority level holding any element. Within a level the kind of the oldest
+ * element is served first, and the batch is filled with the following elements of that kind in offer order,
+ * so kinds sharing a level are served in turn and none waits for another to drain.
+ * The consumer blocks until any element is offered, without polling.
+ * <p>
+ * When built with a key, an element offered while another with the same key is queued merges with it:
+ * the newer element is kept at the highest priority level of the two, in the place of the queued one
+ * when that one already has the higher priority, else at the end of its new level.
+ */
+public class PriorityBatchQueue<E> {
+
+    private static final class Entry<E> {
+        private final long seq;
+        private final int level;
+        private E element;
+        // merged into a newer entry: skipped when reached
+        private boolean removed = false;
+
+        private Entry(long seq, int level, E element) {
+            this.seq = seq;
+            this.level = level;
+            this.element = element;
+        }
+    }
+
+    private final List<Map<Object, ArrayDeque<Entry<E>>>> levels = new ArrayList<>();
+    private final Function<E, ?> kind;
+    private final Function<E, ?> key;
+    private final Map<Object, Entry<E>> byKey = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition removed = lock.newCondition();
+    private long nextSeq = 0;
+    private int size = 0;
+
+    /**
+     * @param levels the number of priority levels
+     * @param kind the kind of an element: a batch only holds elements of one kind
+     */
+    public PriorityBatchQueue(int levels, Function<E, ?> kind) {
+        this(levels, kind, null);
+    }
+
+    /**
+     * @param levels the number of priority levels
+     * @param kind the kind of an element: a batch only holds elements of one kind
+     * @param key the key elements are merged by, null for none
+     */
+    public PriorityBatchQueue(int levels, Function<E, ?> kind, Function<E, ?> key) {
+        if (levels < 1) {
+            throw new IllegalArgumentException("at least one priority level is needed: " + levels);
+        }
+        for (int i = 0; i < levels; i++) {
+            this.levels.add(new LinkedHashMap<>());
+        }
+        this.kind = Objects.requireNonNull(kind);
+        this.key = key;
+    }
+
+    /**
+     * @return the queued element merged with the offered one, or {@code null} if none was
+     */
+    public E offer(int level, E element) {
+        Objects.requireNonNull(element);
+        Objects.checkIndex(level, levels.size());
+        lock.lock();
+        try {
+            Entry<E> queued = key == null ? null : byKey.get(key.apply(element));
+            if (queued == null) {
+                add(level, element);
+                return null;
+            }
+            E merged = queued.element;
+            if (queued.level <= level && kind.apply(merged).equals(kind.apply(element))) {
+                queued.element = element;
+                return merged;
+            }
+            queued.removed = true;
+            size--;
+            add(Math.min(level, queued.level), element);
+            return merged;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(int level, E element) {
+        Entry<E> entry = new Entry<>(nextSeq++, level, element);
+        levels.get(level).computeIfAbsent(kind.apply(element), k -> new ArrayDeque<>()).add(entry);
+        if (key != null) {
+            byKey.put(key.apply(element), entry);
+        }
+        size++;
+        notEmpty.signal();
+    }
+
+    // the entry left the queue
+    private E remove(Entry<E> entry) {
+        if (key != null) {
+            byKey.remove(key.apply(entry.element), entry);
+        }
+        size--;
+        return entry.element;
+    }
+
+    public boolean containsKey(Object k) {
+        lock.lock();
+        try {
+            return byKey.containsKey(k);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns up to {@code maxBatch} elements of the same kind, waiting until one is offered.
+     */
+    public List<E> take(int maxBatch) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            for (int level = 0; level < levels.size(); level++) {
+                ArrayDeque<Entry<E>> oldest = oldestKind(level);
+                if (oldest == null) {
+                    continue;
+                }
+                List<E> batch = new ArrayList<>(Math.min(maxBatch, oldest.size()));
+                while (!oldest.isEmpty() && batch.size() < maxBatch) {
+                    Entry<E> entry = oldest.poll();
+                    if (!entry.removed) {
+                        batch.add(remove(entry));
+                    }
+                }
+                removed.signalAll();
+                return batch;
+            }
+            throw new IllegalStateException("no element found in a queue of size " + size);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the lowest priority level holding any element, or -1 when the queue is empty
+     */
+    public int lastLevel() {
+        lock.lock();
+        try {
+            for (int level = levels.size() - 1; level >= 0; level--) {
+                if (oldestKind(level) != null) {
+                    return level;
+                }
+            }
+            return -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the oldest element of the level, whatever its kind.
+     *
+     * @return the removed element, or {@code null} if the level is empty
+     */
+    public E removeOldest(int level) {
+        lock.lock();
+        try {
+            ArrayDeque<Entry<E>> oldest = oldestKind(level);
+            if (oldest == null) {
+                return null;
+            }
+            removed.signalAll();
+            return remove(oldest.poll());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to the given time for the queue to hold fewer than {@code size} elements.
+     *
+     * @return true if it does
+     */
+    public boolean awaitSizeBelow(int size, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (this.size >= size) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = removed.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // the queue of the level whose head is the oldest element, null when the level is empty
+    private ArrayDeque<Entry<E>> oldestKind(int level) {
+        ArrayDeque<Entry<E>> oldest = null;
+        for (ArrayDeque<Entry<E>> queue : levels.get(level).values()) {
+            while (!queue.isEmpty() && queue.peek().removed) {
+                queue.poll();
+            }
+            if (!queue.isEmpty() && (oldest == null || queue.peek().seq < oldest.peek().seq)) {
+                oldest = queue;
+            }
+        }
+        return oldest;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.opennms.plugins.servicenow;
+
+/**
+ * Point in time view of a sender queue.
+ *
+ * @param size the elements queued in memory
+ * @param capacity the elements the queue holds before the overflow policy applies
+ * @param dropped the elements dropped by the overflow policy since the start
+ * @param spilled the alerts kept in the spool alone, waiting for room in the queue
+ */
+public record QueueStats(String name,
+                         int size,
+                         int capacity,
+                         OverflowPolicy policy,
+                         long dropped,
+                         int spilled) {
+}
@@ -0,0 +1,85 @@
+package org.opennms.plugins.servicenow;
+
+import org.opennms.integration.api.v1.config.requisition.Requisition;
+import org.opennms.integration.api.v1.config.requisition.RequisitionInterface;
+import org.opennms.integration.api.v1.config.requisition.RequisitionNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ip address by foreign id of the deployed requisitions, projected on the foreign ids the assets need.
+ * <p>
+ * A projection is kept per foreign source together with the generation date of the requisition it was made from.
+ * While the deployed requisition keeps the same date and the needed foreign ids were already projected,
+ * the projection is reused without walking the requisition nodes again.
+ */
+public class RequisitionCache {
+    private static final Logger LOG = LoggerFactory.getLogger(RequisitionCache.class);
+
+    private record Projection(Date generatedAt, Set<String> foreignIds, Map<String, String> ipByForeignId) {
+    }
+
+    private final Map<String, Projection> projections = new ConcurrentHashMap<>();
+
+    /**
+     * @return the ip address of the first interface by foreign id, for the foreign ids found in the requisition
+     */
+    public Map<String, String> project(Requisition requisition, Set<String> foreignIds) {
+        final String fs = requisition.getForeignSource();
+        final Date generatedAt = requisition.getGeneratedAt();
+        Projection cached = generatedAt == null ? null : projections.get(fs);
+        Set<String> needed = foreignIds;
+        if (cached != null && cached.generatedAt().equals(generatedAt)) {
+            if (cached.foreignIds().containsAll(foreignIds)) {
+                LOG.debug("project: fs: {} unchanged since {}, reusing projection", fs, generatedAt);
+                return cached.ipByForeignId();
+            }
+            // keep what was projected for the same requisition, so that alternating callers do not evict each other
+            needed = new HashSet<>(cached.foreignIds());
+            needed.addAll(foreignIds);
+        }
+        Map<String, String> ipByForeignId = new HashMap<>(needed.size() * 2);
+        for (RequisitionNode rn : requisition.getNodes()) {
+            if (!needed.contains(rn.getForeignId())) {
+                continue;
+            }
+            if (rn.getInterfaces().isEmpty()) {
+                LOG.debug("project: no requisition interface for fs:{}, fid:{}", fs, rn.getForeignId());
+                continue;
+            }
+            RequisitionInterface ri = rn.getInterfaces().get(0);
+            String ipaddress = ri.getIpAddress().getHostAddress();
+            LOG.debug("project: found ip: {} for: fs: {}, fid: {} ", ipaddress, fs, rn.getForeignId());
+            ipByForeignId.put(rn.getForeignId(), ipaddress);
+        }
+        Map<String, String> projection = Map.copyOf(ipByForeignId);
+        if (generatedAt != null) {
+            projections.put(fs, new Projection(generatedAt, Set.copyOf(needed), projection));
+        }
+        return projection;
+    }
+
+    /**
+     * Drops the projections of the foreign sources not in the set.
+     */
+    public void retain(Set<String> foreignSources) {
+        Objects.requireNonNull(foreignSources);
+        projections.keySet().retainAll(foreignSources);
+    }
+
+    public int size() {
+        return projections.size();
+    }
+
+    public void clear() {
+        projections.clear();
+    }
+}
@@ -0,0 +1,88 @@
+package org.opennms.plugins.servicenow;
+
+import org.opennms.plugins.servicenow.client.ApiException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs an asynchronous send, retrying it with an increasing delay ({@code retryDelay * attempt})
+ * while it fails with an {@link ApiException} that is not a {@link ApiException#isRejected() rejection},
+ * for at most {@code maxRetry} attempts in all: the result then fails with the failure of the last one.
+ * No thread is held between attempts. Completing the result by any other means (a timeout, a cancel)
+ * stops the retries and cancels the attempt in flight, which aborts its HTTP call.
+ */
+final class RetryingSend<T> {
+
+    private final Supplier<CompletableFuture<T>> attempt;
+    private final BiConsumer<Integer, ApiException> onAttemptFailed;
+    private final int maxRetry;
+    private final long retryDelay;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private volatile CompletableFuture<T> current;
+
+    private RetryingSend(Supplier<CompletableFuture<T>> attempt, BiConsumer<Integer, ApiException> onAttemptFailed,
+                         int maxRetry, long retryDelay) {
+        this.attempt = attempt;
+        this.onAttemptFailed = onAttemptFailed;
+        this.maxRetry = maxRetry;
+        this.retryDelay = retryDelay;
+        result.whenComplete((v, t) -> {
+            CompletableFuture<T> inFlight = current;
+            if (inFlight != null && !inFlight.isDone()) {
+                inFlight.cancel(true);
+            }
+        });
+    }
+
+    /**
+     * @param attempt starts one attempt of the send
+     * @param onAttemptFailed called with the attempt number and the failure of every failed attempt that is retried
+     * @param maxRetry the maximum number of attempts, at least one is made
+     * @param retryDelay base delay in milliseconds between attempts
+     */
+    static <T> CompletableFuture<T> send(Supplier<CompletableFuture<T>> attempt,
+                                         BiConsumer<Integer, ApiException> onAttemptFailed,
+                                         int maxRetry,
+                                         long retryDelay) {
+        RetryingSend<T> send = new RetryingSend<>(attempt, onAttemptFailed, maxRetry, retryDelay);
+        send.run(1);
+        return send.result;
+    }
+
+    private void run(int n) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<T> future;
+        try {
+            future = attempt.get();
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        current = future;
+        if (result.isDone()) {
+            future.cancel(true);
+            return;
+        }
+        future.whenComplete((v, t) -> {
+            if (t == null) {
+                result.complete(v);
+                return;
+            }
+            Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+            if (!(cause instanceof ApiException) || ((ApiException) cause).isRejected() || result.isDone() || n >= maxRetry) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            onAttemptFailed.accept(n, (ApiException) cause);
+            Executor delayed = CompletableFuture.delayedExecutor(retryDelay * n, TimeUnit.MILLISECONDS);
+            delayed.execute(() -> run(n + 1));
+        });
+    }
+}
@@ -0,0 +1,76 @@
+package org.opennms.plugins.servicenow;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The asynchronous calls making up one send. When the send times out or is cancelled every call
+ * still in flight is cancelled, which aborts its HTTP request and stops its retries.
+ */
+final class SendScope {
+    final CompletableFuture<Void> result = new CompletableFuture<>();
+    private final Set<CompletableFuture<?>> calls = ConcurrentHashMap.newKeySet();
+
+    private SendScope() {
+        result.whenComplete((v, t) -> {
+            if (t != null) {
+                calls.forEach(call -> call.cancel(true));
+            }
+        });
+    }
+
+    /**
+     * Starts a send within a new scope.
+     *
+     * @param send starts the send, tracking its calls in the given scope
+     * @param timeoutMs the scope fails with a {@link java.util.concurrent.TimeoutException} after this time, 0 for none
+     */
+    static SendScope start(Function<SendScope, CompletableFuture<Void>> send, long timeoutMs) {
+        final SendScope scope = new SendScope();
+        if (timeoutMs > 0) {
+            scope.result.orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        try {
+            send.apply(scope).whenComplete((v, t) -> {
+                if (t == null) {
+                    scope.result.complete(null);
+                } else {
+                    scope.result.completeExceptionally(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                }
+            });
+        } catch (RuntimeException e) {
+            scope.result.completeExceptionally(e);
+        }
+        return scope;
+    }
+
+    <T> CompletableFuture<T> track(CompletableFuture<T> call) {
+        calls.add(call);
+        call.whenComplete((v, t) -> calls.remove(call));
+        if (result.isCompletedExceptionally()) {
+            call.cancel(true);
+        }
+        return call;
+    }
+
+    <T> CompletableFuture<T> track(Supplier<CompletableFuture<T>> call) {
+        try {
+            return track(call.get());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    boolean isDone() {
+        return result.isDone();
+    }
+
+    void cancel() {
+        result.cancel(true);
+    }
+}
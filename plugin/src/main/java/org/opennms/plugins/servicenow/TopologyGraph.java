@@ -0,0 +1,274 @@
+package org.opennms.plugins.servicenow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Immutable undirected topology graph of one protocol.
+ * <p>
+ * Vertices are the linked nodes, numbered {@code 0..vertexCount()-1} in ascending node id order.
+ * Adjacency is stored in compressed sparse row form: the neighbors of vertex {@code v} are
+ * {@code targets[offsets[v]..offsets[v+1])}, sorted and without duplicates.
+ * Node labels are kept in a separate dictionary, so that lookups by label do not need a
+ * label keyed adjacency map.
+ */
+public class TopologyGraph {
+
+    public static final TopologyGraph EMPTY = new Builder().build();
+
+    private final int[] nodeIds;
+    private final String[] labels;
+    private final int[] offsets;
+    private final int[] targets;
+    private final Map<String, Integer> vertexByLabel;
+
+    private TopologyGraph(int[] nodeIds, String[] labels, int[] offsets, int[] targets) {
+        this.nodeIds = nodeIds;
+        this.labels = labels;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.vertexByLabel = new HashMap<>(labels.length * 2);
+        // labels are not unique: the node with the lowest id wins
+        for (int v = labels.length - 1; v >= 0; v--) {
+            vertexByLabel.put(labels[v], v);
+        }
+    }
+
+    public int vertexCount() {
+        return nodeIds.length;
+    }
+
+    public int edgeCount() {
+        return targets.length / 2;
+    }
+
+    /**
+     * @return the vertex of the node, or -1 when the node has no edges
+     */
+    public int vertexOf(int nodeId) {
+        int v = Arrays.binarySearch(nodeIds, nodeId);
+        return v < 0 ? -1 : v;
+    }
+
+    /**
+     * @return the vertex of the node with the label, or -1 when there is none
+     */
+    public int vertexOf(String label) {
+        Integer v = vertexByLabel.get(label);
+        return v == null ? -1 : v;
+    }
+
+    public int nodeId(int vertex) {
+        return nodeIds[vertex];
+    }
+
+    public String label(int vertex) {
+        return labels[vertex];
+    }
+
+    public int degree(int vertex) {
+        return offsets[vertex + 1] - offsets[vertex];
+    }
+
+    /**
+     * @return the {@code i}-th neighbor of the vertex, {@code 0 <= i < degree(vertex)}
+     */
+    public int neighbor(int vertex, int i) {
+        return targets[offsets[vertex] + i];
+    }
+
+    /**
+     * @return the labels of the nodes linked to the node with the label
+     */
+    public Set<String> getNeighborLabels(String label) {
+        int v = vertexOf(label);
+        if (v < 0) {
+            return new HashSet<>();
+        }
+        Set<String> neighbors = new HashSet<>(degree(v) * 2);
+        for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+            neighbors.add(labels[targets[i]]);
+        }
+        return neighbors;
+    }
+
+    /**
+     * @return the ids of the nodes whose label or links differ between the previous graph and this one,
+     * including the nodes only present in one of them
+     */
+    public int[] changedNodeIds(TopologyGraph previous) {
+        int[] changed = new int[16];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < nodeIds.length || j < previous.nodeIds.length) {
+            int id;
+            if (j == previous.nodeIds.length || (i < nodeIds.length && nodeIds[i] < previous.nodeIds[j])) {
+                id = nodeIds[i++];
+            } else if (i == nodeIds.length || previous.nodeIds[j] < nodeIds[i]) {
+                id = previous.nodeIds[j++];
+            } else if (sameVertex(i++, previous, j++)) {
+                continue;
+            } else {
+                id = nodeIds[i - 1];
+            }
+            if (size == changed.length) {
+                changed = Arrays.copyOf(changed, size * 2);
+            }
+            changed[size++] = id;
+        }
+        return Arrays.copyOf(changed, size);
+    }
+
+    private boolean sameVertex(int v, TopologyGraph other, int w) {
+        if (!labels[v].equals(other.labels[w]) || degree(v) != other.degree(w)) {
+            return false;
+        }
+        for (int k = 0; k < degree(v); k++) {
+            if (nodeIds[neighbor(v, k)] != other.nodeIds[other.neighbor(w, k)]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the vertices at most {@code hops} links away from any of the nodes; ids not in the graph are ignored
+     */
+    public BitSet reachedFrom(int[] fromNodeIds, int hops) {
+        BitSet reached = new BitSet(vertexCount());
+        int[] frontier = new int[vertexCount()];
+        int size = 0;
+        for (int id : fromNodeIds) {
+            int v = vertexOf(id);
+            if (v >= 0 && !reached.get(v)) {
+                reached.set(v);
+                frontier[size++] = v;
+            }
+        }
+        // every vertex enters the frontier once, so the reached ones can be appended after it
+        int from = 0;
+        for (int hop = 0; hop < hops && from < size; hop++) {
+            int to = size;
+            for (int f = from; f < to; f++) {
+                for (int i = offsets[frontier[f]]; i < offsets[frontier[f] + 1]; i++) {
+                    int v = targets[i];
+                    if (!reached.get(v)) {
+                        reached.set(v);
+                        frontier[size++] = v;
+                    }
+                }
+            }
+            from = to;
+        }
+        return reached;
+    }
+
+    /**
+     * Label keyed copy of the adjacency, for display and tests.
+     */
+    public Map<String, Set<String>> asLabelMap() {
+        Map<String, Set<String>> map = new HashMap<>();
+        for (int v = 0; v < vertexCount(); v++) {
+            Set<String> neighbors = map.computeIfAbsent(labels[v], k -> new HashSet<>());
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                neighbors.add(labels[targets[i]]);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Builds a graph from a label keyed adjacency map. The nodes are numbered in label order.
+     */
+    public static TopologyGraph fromLabelMap(Map<String, Set<String>> adjacency) {
+        Set<String> all = new HashSet<>(adjacency.keySet());
+        adjacency.values().forEach(all::addAll);
+        List<String> sorted = new ArrayList<>(all);
+        Collections.sort(sorted);
+        Map<String, Integer> ids = new HashMap<>(sorted.size() * 2);
+        for (String label : sorted) {
+            ids.put(label, ids.size());
+        }
+        Builder builder = new Builder();
+        for (String label : sorted) {
+            builder.addVertex(ids.get(label), label);
+        }
+        new TreeMap<>(adjacency).forEach((source, neighbors) -> neighbors.forEach(target ->
+                builder.addEdge(ids.get(source), source, ids.get(target), target)));
+        return builder.build();
+    }
+
+    public static class Builder {
+        private final Map<Integer, String> labels = new HashMap<>();
+        private int[] edges = new int[64];
+        private int size = 0;
+
+        public Builder addVertex(int nodeId, String label) {
+            labels.putIfAbsent(nodeId, label);
+            return this;
+        }
+
+        /**
+         * Adds an undirected edge. Self loops are ignored.
+         */
+        public Builder addEdge(int sourceId, String sourceLabel, int targetId, String targetLabel) {
+            addVertex(sourceId, sourceLabel);
+            addVertex(targetId, targetLabel);
+            if (sourceId == targetId) {
+                return this;
+            }
+            if (size + 2 > edges.length) {
+                edges = Arrays.copyOf(edges, edges.length * 2);
+            }
+            edges[size++] = sourceId;
+            edges[size++] = targetId;
+            return this;
+        }
+
+        public TopologyGraph build() {
+            int[] nodeIds = labels.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+            String[] vertexLabels = new String[nodeIds.length];
+            for (int v = 0; v < nodeIds.length; v++) {
+                vertexLabels[v] = labels.get(nodeIds[v]);
+            }
+            // count both directions of every edge, then fill the rows
+            int[] offsets = new int[nodeIds.length + 1];
+            int[] pairs = new int[size];
+            for (int i = 0; i < size; i++) {
+                pairs[i] = Arrays.binarySearch(nodeIds, edges[i]);
+                offsets[pairs[i] + 1]++;
+            }
+            for (int v = 0; v < nodeIds.length; v++) {
+                offsets[v + 1] += offsets[v];
+            }
+            int[] fill = Arrays.copyOf(offsets, nodeIds.length);
+            int[] targets = new int[size];
+            for (int i = 0; i < size; i += 2) {
+                targets[fill[pairs[i]]++] = pairs[i + 1];
+                targets[fill[pairs[i + 1]]++] = pairs[i];
+            }
+            // sort every row and drop duplicate edges
+            int[] compactOffsets = new int[nodeIds.length + 1];
+            int n = 0;
+            for (int v = 0; v < nodeIds.length; v++) {
+                Arrays.sort(targets, offsets[v], offsets[v + 1]);
+                for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                    if (i == offsets[v] || targets[i] != targets[i - 1]) {
+                        targets[n++] = targets[i];
+                    }
+                }
+                compactOffsets[v + 1] = n;
+            }
+            return new TopologyGraph(nodeIds, vertexLabels, compactOffsets, Arrays.copyOf(targets, n));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.opennms.plugins.servicenow;
+
+import org.opennms.integration.api.v1.model.Node;
+import org.opennms.integration.api.v1.model.TopologyProtocol;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable result of one {@link EdgeService} refresh.
+ * <p>
+ * A refresh builds a new snapshot aside and publishes it with a single reference swap, so readers always
+ * see the nodes, gateways, graphs and parents of the same refresh, and never a map being cleared or filled.
+ * The generation grows by one with every published snapshot; {@link #EMPTY} is generation 0.
+ * A snapshot {@link #isRestored() restored} from disk at startup holds the parents and gateways of the
+ * last refresh before the restart, but no nodes and no graphs.
+ */
+public final class TopologySnapshot {
+
+    public static final TopologySnapshot EMPTY = new TopologySnapshot(0, List.of(), Set.of(), Map.of(), Map.of(), Map.of(), Map.of(), Map.of(), Map.of(), ParentIndex.EMPTY);
+
+    private final long generation;
+    private final List<Node> nodes;
+    private final Set<String> locations;
+    private final Map<String, Set<String>> gatewayToChildMap;
+    private final Map<String, String> gatewayToGatewayLabelMap;
+    private final Map<String, Set<String>> gatewayMap;
+    private final Map<TopologyProtocol, TopologyGraph> graphs;
+    private final Map<TopologyProtocol, Map<String, String>> parentsByProtocol;
+    private final Map<String, String> parentByGatewayKeyMap;
+    private final ParentIndex parentIndex;
+    private final boolean restored;
+
+    /**
+     * @param gatewayToChildMap the child labels by gateway ip address
+     * @param gatewayToGatewayLabelMap the gateway label by gateway ip address
+     * @param gatewayMap the child labels by gateway label
+     * @param parentsByProtocol the parent label by child label found by each protocol
+     * @param parentByGatewayKeyMap the parent label by child label, all protocols merged
+     * @param parentIndex the parent label by node id, with the parent metadata applied
+     */
+    public TopologySnapshot(long generation,
+                            List<Node> nodes,
+                            Set<String> locations,
+                            Map<String, Set<String>> gatewayToChildMap,
+                            Map<String, String> gatewayToGatewayLabelMap,
+                            Map<String, Set<String>> gatewayMap,
+                            Map<TopologyProtocol, TopologyGraph> graphs,
+                            Map<TopologyProtocol, Map<String, String>> parentsByProtocol,
+                            Map<String, String> parentByGatewayKeyMap,
+                            ParentIndex parentIndex) {
+        this(generation, nodes, locations, gatewayToChildMap, gatewayToGatewayLabelMap, gatewayMap, graphs,
+                parentsByProtocol, parentByGatewayKeyMap, parentIndex, false);
+    }
+
+    private TopologySnapshot(long generation,
+                             List<Node> nodes,
+                             Set<String> locations,
+                             Map<String, Set<String>> gatewayToChildMap,
+                             Map<String, String> gatewayToGatewayLabelMap,
+                             Map<String, Set<String>> gatewayMap,
+                             Map<TopologyProtocol, TopologyGraph> graphs,
+                             Map<TopologyProtocol, Map<String, String>> parentsByProtocol,
+                             Map<String, String> parentByGatewayKeyMap,
+                             ParentIndex parentIndex,
+                             boolean restored) {
+        this.generation = generation;
+        this.nodes = List.copyOf(nodes);
+        this.locations = Set.copyOf(locations);
+        this.gatewayToChildMap = copyOfSets(gatewayToChildMap);
+        this.gatewayToGatewayLabelMap = Map.copyOf(gatewayToGatewayLabelMap);
+        this.gatewayMap = copyOfSets(gatewayMap);
+        this.graphs = new EnumMap<>(TopologyProtocol.class);
+        this.graphs.putAll(graphs);
+        this.parentsByProtocol = new EnumMap<>(TopologyProtocol.class);
+        parentsByProtocol.forEach((protocol, parents) -> this.parentsByProtocol.put(protocol, Map.copyOf(parents)));
+        this.parentByGatewayKeyMap = Map.copyOf(parentByGatewayKeyMap);
+        this.parentIndex = parentIndex;
+        this.restored = restored;
+    }
+
+    /**
+     * @return a snapshot holding the persisted state of a previous refresh
+     */
+    public static TopologySnapshot restore(long generation,
+                                           Set<String> locations,
+                                           Map<String, Set<String>> gatewayToChildMap,
+                                           Map<String, String> gatewayToGatewayLabelMap,
+                                           Map<String, Set<String>> gatewayMap,
+                                           Map<String, String> parentByGatewayKeyMap,
+                                           ParentIndex parentIndex) {
+        return new TopologySnapshot(generation, List.of(), locations, gatewayToChildMap, gatewayToGatewayLabelMap,
+                gatewayMap, Map.of(), Map.of(), parentByGatewayKeyMap, parentIndex, true);
+    }
+
+    private static Map<String, Set<String>> copyOfSets(Map<String, Set<String>> map) {
+        Map<String, Set<String>> copy = new HashMap<>(map.size() * 2);
+        map.forEach((key, value) -> copy.put(key, Set.copyOf(value)));
+        return Map.copyOf(copy);
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    public Set<String> getLocations() {
+        return locations;
+    }
+
+    public Map<String, Set<String>> getGatewayToChildMap() {
+        return gatewayToChildMap;
+    }
+
+    public Map<String, String> getGatewayToGatewayLabelMap() {
+        return gatewayToGatewayLabelMap;
+    }
+
+    public Map<String, Set<String>> getGatewayMap() {
+        return gatewayMap;
+    }
+
+    public TopologyGraph getGraph(TopologyProtocol protocol) {
+        return graphs.getOrDefault(protocol, TopologyGraph.EMPTY);
+    }
+
+    public Map<String, String> getParents(TopologyProtocol protocol) {
+        return parentsByProtocol.getOrDefault(protocol, Map.of());
+    }
+
+    public Map<String, String> getParentByGatewayKeyMap() {
+        return parentByGatewayKeyMap;
+    }
+
+    public ParentIndex getParentIndex() {
+        return parentIndex;
+    }
+
+    public boolean isRestored() {
+        return restored;
+    }
+}
@@ -0,0 +1,152 @@
+package org.opennms.plugins.servicenow;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Persists the parents and gateways of the last {@link EdgeService} refresh to {@code <prefix>-topology.bin},
+ * so that after a restart parents can be served before the first refresh completes.
+ * <p>
+ * The file is a versioned binary dump written to a temporary file and atomically renamed over the previous one,
+ * so a crash while saving leaves the previous file in place. Nodes and graphs are not saved: they are
+ * reloaded by the refresh that follows the restart.
+ */
+public class TopologySnapshotStore {
+    private static final Logger LOG = LoggerFactory.getLogger(TopologySnapshotStore.class);
+
+    private static final int MAGIC = 0x534e5450;
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final Path tempFile;
+
+    public TopologySnapshotStore(String filePrefix) {
+        this.file = Paths.get(filePrefix + "-topology.bin");
+        this.tempFile = Paths.get(filePrefix + "-topology.bin.tmp");
+    }
+
+    /**
+     * @return the saved snapshot, or empty when there is none or it cannot be read
+     */
+    public Optional<TopologySnapshot> load() {
+        if (!Files.exists(file)) {
+            LOG.info("load: topology file not found: {}", file);
+            return Optional.empty();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                LOG.warn("load: {} is not a topology file, ignoring it", file);
+                return Optional.empty();
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                LOG.warn("load: {} has unsupported version {}, ignoring it", file, version);
+                return Optional.empty();
+            }
+            long generation = in.readLong();
+            Set<String> locations = readSet(in);
+            Map<String, Set<String>> gatewayToChildMap = readSetMap(in);
+            Map<String, String> gatewayToGatewayLabelMap = readMap(in);
+            Map<String, Set<String>> gatewayMap = readSetMap(in);
+            Map<String, String> parentByGatewayKeyMap = readMap(in);
+            ParentIndex.Builder parentIndex = new ParentIndex.Builder();
+            for (int i = in.readInt(); i > 0; i--) {
+                parentIndex.put(in.readInt(), in.readUTF());
+            }
+            TopologySnapshot snapshot = TopologySnapshot.restore(generation, locations, gatewayToChildMap,
+                    gatewayToGatewayLabelMap, gatewayMap, parentByGatewayKeyMap, parentIndex.build());
+            LOG.info("load: loaded topology generation {} with {} node parents from {}",
+                    generation, snapshot.getParentIndex().size(), file);
+            return Optional.of(snapshot);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("load: failed to read topology file {}, ignoring it", file, e);
+            return Optional.empty();
+        }
+    }
+
+    public void save(TopologySnapshot snapshot) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(snapshot.getGeneration());
+            writeSet(out, snapshot.getLocations());
+            writeSetMap(out, snapshot.getGatewayToChildMap());
+            writeMap(out, snapshot.getGatewayToGatewayLabelMap());
+            writeSetMap(out, snapshot.getGatewayMap());
+            writeMap(out, snapshot.getParentByGatewayKeyMap());
+            ParentIndex parentIndex = snapshot.getParentIndex();
+            out.writeInt(parentIndex.size());
+            for (int nodeId : parentIndex.nodeIds()) {
+                out.writeInt(nodeId);
+                out.writeUTF(parentIndex.get(nodeId));
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOG.debug("save: saved topology generation {} to {}", snapshot.getGeneration(), file);
+    }
+
+    private static void writeSet(DataOutputStream out, Set<String> set) throws IOException {
+        out.writeInt(set.size());
+        for (String value : set) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static Set<String> readSet(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Set<String> set = new HashSet<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            set.add(in.readUTF());
+        }
+        return set;
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<String, String> map = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            map.put(in.readUTF(), in.readUTF());
+        }
+        return map;
+    }
+
+    private static void writeSetMap(DataOutputStream out, Map<String, Set<String>> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeSet(out, entry.getValue());
+        }
+    }
+
+    private static Map<String, Set<String>> readSetMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<String, Set<String>> map = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            map.put(in.readUTF(), readSet(in));
+        }
+        return map;
+    }
+}
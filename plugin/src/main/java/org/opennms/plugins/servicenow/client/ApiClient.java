@@ -1,15 +1,22 @@
 package org.opennms.plugins.servicenow.client;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.FormBody;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import org.opennms.plugins.servicenow.model.AccessPoint;
 import org.opennms.plugins.servicenow.model.Alert;
+import org.opennms.plugins.servicenow.model.AssetResult;
 import org.opennms.plugins.servicenow.model.NetworkDevice;
 import org.opennms.plugins.servicenow.model.TokenResponse;
 import org.slf4j.Logger;
@@ -22,16 +29,52 @@ import javax.net.ssl.X509TrustManager;
 import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class ApiClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(ApiClient.class);
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
-    private final OkHttpClient clientTrueSsl = new OkHttpClient();
-    private final OkHttpClient clientIgnoreSsl = trustAllSslClient(clientTrueSsl);
+    public static final int DEFAULT_POOL_MAX_IDLE = 5;
+    public static final long DEFAULT_POOL_KEEP_ALIVE_MS = 300000L;
+    public static final int DEFAULT_DISPATCHER_MAX_REQUESTS = 64;
+    public static final int DEFAULT_DISPATCHER_MAX_REQUESTS_PER_HOST = 5;
+    // the connection in use plus a few others, such as the ones being validated
+    public static final int MAX_CLIENTS = 4;
+
+    // all clients derive from this one, so they share its connection pool and dispatcher
+    private final OkHttpClient baseClient;
+    // clients by credentials, least recently used first: they only differ in the certificate validation they apply
+    private final Map<ApiClientCredentials, OkHttpClient> clients = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ApiClientCredentials, OkHttpClient> eldest) {
+            return size() > MAX_CLIENTS;
+        }
+    };
     private final ObjectMapper mapper = new ObjectMapper();
 
+    public ApiClient() {
+        this(DEFAULT_POOL_MAX_IDLE, DEFAULT_POOL_KEEP_ALIVE_MS, DEFAULT_DISPATCHER_MAX_REQUESTS, DEFAULT_DISPATCHER_MAX_REQUESTS_PER_HOST, true);
+    }
+
+    public ApiClient(int poolMaxIdle, long poolKeepAliveMs, int maxRequests, int maxRequestsPerHost, boolean http2) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        this.baseClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(poolMaxIdle, poolKeepAliveMs, TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .protocols(http2 ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+                .build();
+        LOG.info("ApiClient: poolMaxIdle={}, poolKeepAliveMs={}, maxRequests={}, maxRequestsPerHost={}, http2={}",
+                poolMaxIdle, poolKeepAliveMs, maxRequests, maxRequestsPerHost, http2);
+    }
+
     private static final TrustManager[] trustAllCerts = new TrustManager[] {
             new X509TrustManager() {
                 @Override
@@ -71,13 +114,40 @@ public class ApiClient {
     }
 
 
-    public TokenResponse getAccessToken(ApiClientCredentials credentials, String tokenEndPoint) throws ApiException {
-        OkHttpClient client;
-        if (credentials.ignoreSslCertificateValidation ) {
-            client = trustAllSslClient(clientIgnoreSsl);
-        } else {
-            client = clientTrueSsl;
+    /**
+     * Returns the client of the credentials. Validating other credentials does not evict the client in use:
+     * only the least recently used client goes once more than {@link #MAX_CLIENTS} are cached.
+     */
+    private OkHttpClient getClient(ApiClientCredentials credentials) {
+        synchronized (clients) {
+            return clients.computeIfAbsent(credentials, c -> {
+                LOG.debug("getClient: new client for: {}", c);
+                return Boolean.TRUE.equals(c.ignoreSslCertificateValidation) ? trustAllSslClient(baseClient) : baseClient;
+            });
         }
+    }
+
+    private int clientCount() {
+        synchronized (clients) {
+            return clients.size();
+        }
+    }
+
+    public ApiClientStats getStats() {
+        ConnectionPool pool = baseClient.connectionPool();
+        Dispatcher dispatcher = baseClient.dispatcher();
+        return new ApiClientStats(
+                pool.connectionCount(),
+                pool.idleConnectionCount(),
+                dispatcher.runningCallsCount(),
+                dispatcher.queuedCallsCount(),
+                dispatcher.getMaxRequests(),
+                dispatcher.getMaxRequestsPerHost(),
+                clientCount());
+    }
+
+    public TokenResponse getAccessToken(ApiClientCredentials credentials, String tokenEndPoint) throws ApiException {
+        OkHttpClient client = getClient(credentials);
         FormBody formBody = new FormBody.Builder()
                 .add("grant_type", "client_credentials")
                 .add("client_id", credentials.username)
@@ -110,6 +180,10 @@ public class ApiClient {
         doPost(alert, credentials, tokenString, endpoint);
     }
 
+    public void sendAlerts(List<Alert> alerts, ApiClientCredentials credentials, String tokenString, String endpoint) throws ApiException {
+        doPost(alerts, credentials, tokenString, endpoint);
+    }
+
     public void sendAsset(AccessPoint ap, ApiClientCredentials credentials, String tokenString, String endpoint) throws ApiException {
         doPost(ap, credentials, tokenString, endpoint);
     }
@@ -118,14 +192,53 @@ public class ApiClient {
         doPost(nd, credentials, tokenString, endpoint);
     }
 
+    public CompletableFuture<Void> sendAlertAsync(Alert alert, ApiClientCredentials credentials, String tokenString, String endpoint, long timeoutMs) {
+        return doPostAsync(alert, credentials, tokenString, endpoint, timeoutMs).thenApply(json -> null);
+    }
+
+    public CompletableFuture<Void> sendAlertsAsync(List<Alert> alerts, ApiClientCredentials credentials, String tokenString, String endpoint, long timeoutMs) {
+        return doPostAsync(alerts, credentials, tokenString, endpoint, timeoutMs).thenApply(json -> null);
+    }
+
+    public CompletableFuture<Void> sendAssetAsync(Object asset, ApiClientCredentials credentials, String tokenString, String endpoint, long timeoutMs) {
+        return doPostAsync(asset, credentials, tokenString, endpoint, timeoutMs).thenApply(json -> null);
+    }
+
+    /**
+     * Upserts a batch of assets in a single request.
+     * The endpoint answers with one result per asset, either as a JSON array or wrapped in a {@code result} field;
+     * an empty list is returned when the response carries no per asset result.
+     */
+    public CompletableFuture<List<AssetResult>> sendAssetsAsync(List<?> assets, ApiClientCredentials credentials, String tokenString, String endpoint, long timeoutMs) {
+        return doPostAsync(assets, credentials, tokenString, endpoint, timeoutMs).thenCompose(json -> {
+            try {
+                return CompletableFuture.completedFuture(toAssetResults(json));
+            } catch (ApiException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        });
+    }
 
-    private void doPost(Object requestBodyPayload, ApiClientCredentials credentials, String tokenString, String endpoint) throws ApiException {
-        OkHttpClient client;
-        if (credentials.ignoreSslCertificateValidation ) {
-            client = trustAllSslClient(clientIgnoreSsl);
-        } else {
-            client = clientTrueSsl;
+    private List<AssetResult> toAssetResults(String json) throws ApiException {
+        if (json == null || json.isBlank()) {
+            return List.of();
         }
+        try {
+            JsonNode node = mapper.readTree(json);
+            if (node.isObject() && node.has("result")) {
+                node = node.get("result");
+            }
+            if (!node.isArray()) {
+                LOG.debug("toAssetResults: no per asset result in response: {}", json);
+                return List.of();
+            }
+            return mapper.readerForListOf(AssetResult.class).readValue(node);
+        } catch (IOException e) {
+            throw new ApiException("Error processing JSON", e);
+        }
+    }
+
+    private Request postRequest(Object requestBodyPayload, ApiClientCredentials credentials, String tokenString, String endpoint) throws ApiException {
         RequestBody body;
         try {
             String jsonPayLoad = mapper.writeValueAsString(requestBodyPayload);
@@ -142,19 +255,71 @@ public class ApiClient {
                 .build();
 
         LOG.debug("doPost: requesting url: {}", request.url());
+        return request;
+    }
 
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                if (response.body() != null) {
-                    LOG.warn("doPost: code: {}, response: {}", response.code(), response.body().string());
-                    throw new ApiException("doPost: Unexpected code: ", new RuntimeException(), response.code(), response.body().toString());
-                }
-                LOG.warn("doPost: code {} response: null", response.code());
-                throw new ApiException("Unexpected code: ", new RuntimeException(), response.code(), "");
+    private static String readResponse(Response response) throws ApiException, IOException {
+        if (!response.isSuccessful()) {
+            if (response.body() != null) {
+                String responseBody = response.body().string();
+                LOG.warn("doPost: code: {}, response: {}", response.code(), responseBody);
+                throw new ApiException("doPost: Unexpected code: ", new RuntimeException(), response.code(), responseBody);
             }
+            LOG.warn("doPost: code {} response: null", response.code());
+            throw new ApiException("Unexpected code: ", new RuntimeException(), response.code(), "");
+        }
+        return response.body() != null ? response.body().string() : null;
+    }
+
+    private String doPost(Object requestBodyPayload, ApiClientCredentials credentials, String tokenString, String endpoint) throws ApiException {
+        OkHttpClient client = getClient(credentials);
+        Request request = postRequest(requestBodyPayload, credentials, tokenString, endpoint);
+        try (Response response = client.newCall(request).execute()) {
+            return readResponse(response);
         } catch (IOException e) {
             throw new ApiException("Got IOException",e);
         }
+    }
+
+    /**
+     * Posts without blocking the caller: the call runs on the OkHttp dispatcher and completes the returned future.
+     * The call is aborted when it exceeds {@code timeoutMs} (unless 0) or when the returned future is cancelled.
+     */
+    private CompletableFuture<String> doPostAsync(Object requestBodyPayload, ApiClientCredentials credentials, String tokenString, String endpoint, long timeoutMs) {
+        final Request request;
+        try {
+            request = postRequest(requestBodyPayload, credentials, tokenString, endpoint);
+        } catch (ApiException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        final Call call = getClient(credentials).newCall(request);
+        if (timeoutMs > 0) {
+            call.timeout().timeout(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        future.whenComplete((json, t) -> {
+            if (future.isCancelled()) {
+                LOG.debug("doPostAsync: cancelling call to url: {}", request.url());
+                call.cancel();
+            }
+        });
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(new ApiException("Got IOException", e));
+            }
 
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    future.complete(readResponse(response));
+                } catch (ApiException e) {
+                    future.completeExceptionally(e);
+                } catch (IOException e) {
+                    future.completeExceptionally(new ApiException("Got IOException", e));
+                }
+            }
+        });
+        return future;
     }
 }
@@ -1,9 +1,14 @@
 package org.opennms.plugins.servicenow.client;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import org.opennms.plugins.servicenow.model.AccessPoint;
 import org.opennms.plugins.servicenow.model.Alert;
+import org.opennms.plugins.servicenow.model.AssetResult;
 import org.opennms.plugins.servicenow.model.NetworkDevice;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public interface ApiClientProvider {
     /**
      * Send Alert to client WSO2 Api .
@@ -13,6 +18,14 @@ public interface ApiClientProvider {
      */
     void send(Alert alert, final ApiClientCredentials credentials) throws ApiException;
 
+    /**
+     * Send a batch of Alerts to client WSO2 Api as a single JSON array.
+     *
+     * @param alerts the alerts to send data.
+     * @param credentials the credentials to use for the client.
+     */
+    void send(List<Alert> alerts, final ApiClientCredentials credentials) throws ApiException;
+
     /**
      * Send NetworkDevice Asset to client WSO2 Api .
      *
@@ -29,6 +42,86 @@ public interface ApiClientProvider {
      */
     void send(AccessPoint accessPoint, final ApiClientCredentials credentials) throws ApiException;
 
+    /**
+     * Send Alert to client WSO2 Api without blocking the caller.
+     *
+     * @param alert the alert to send data.
+     * @param credentials the credentials to use for the client.
+     * @param timeoutMs the timeout of the HTTP call, 0 for none.
+     * @return completes when the alert is sent, fails with {@link ApiException}; cancelling it aborts the call.
+     */
+    CompletableFuture<Void> sendAsync(Alert alert, final ApiClientCredentials credentials, long timeoutMs);
+
+    /**
+     * Send a batch of Alerts to client WSO2 Api as a single JSON array without blocking the caller.
+     *
+     * @param alerts the alerts to send data.
+     * @param credentials the credentials to use for the client.
+     * @param timeoutMs the timeout of the HTTP call, 0 for none.
+     * @return completes when the alerts are sent, fails with {@link ApiException}; cancelling it aborts the call.
+     */
+    CompletableFuture<Void> sendAsync(List<Alert> alerts, final ApiClientCredentials credentials, long timeoutMs);
+
+    /**
+     * Send NetworkDevice Asset to client WSO2 Api without blocking the caller.
+     *
+     * @param networkDevice the asset to send data.
+     * @param credentials the credentials to use for the client.
+     * @param timeoutMs the timeout of the HTTP call, 0 for none.
+     * @return completes when the asset is sent, fails with {@link ApiException}; cancelling it aborts the call.
+     */
+    CompletableFuture<Void> sendAsync(NetworkDevice networkDevice, final ApiClientCredentials credentials, long timeoutMs);
+
+    /**
+     * Send AccessPoint Asset to client WSO2 Api without blocking the caller.
+     *
+     * @param accessPoint the asset to send data.
+     * @param credentials the credentials to use for the client.
+     * @param timeoutMs the timeout of the HTTP call, 0 for none.
+     * @return completes when the asset is sent, fails with {@link ApiException}; cancelling it aborts the call.
+     */
+    CompletableFuture<Void> sendAsync(AccessPoint accessPoint, final ApiClientCredentials credentials, long timeoutMs);
+
+    /**
+     * Upsert a batch of NetworkDevice Assets to client WSO2 Api without blocking the caller.
+     *
+     * @param networkDevices the assets to send data.
+     * @param credentials the credentials to use for the client.
+     * @param timeoutMs the timeout of the HTTP call, 0 for none.
+     * @return the per asset results, empty when the endpoint does not report them; cancelling it aborts the call.
+     */
+    CompletableFuture<List<AssetResult>> sendNetworkDevicesAsync(List<NetworkDevice> networkDevices, final ApiClientCredentials credentials, long timeoutMs);
+
+    /**
+     * Upsert a batch of AccessPoint Assets to client WSO2 Api without blocking the caller.
+     *
+     * @param accessPoints the assets to send data.
+     * @param credentials the credentials to use for the client.
+     * @param timeoutMs the timeout of the HTTP call, 0 for none.
+     * @return the per asset results, empty when the endpoint does not report them; cancelling it aborts the call.
+     */
+    CompletableFuture<List<AssetResult>> sendAccessPointsAsync(List<AccessPoint> accessPoints, final ApiClientCredentials credentials, long timeoutMs);
+
+    /**
+     * Send an Asset document, full or partial, to client WSO2 Api without blocking the caller.
+     *
+     * @param asset the asset fields to send, keyed by {@code asset_tag}.
+     * @param credentials the credentials to use for the client.
+     * @param timeoutMs the timeout of the HTTP call, 0 for none.
+     * @return completes when the asset is sent, fails with {@link ApiException}; cancelling it aborts the call.
+     */
+    CompletableFuture<Void> sendAssetAsync(JsonNode asset, final ApiClientCredentials credentials, long timeoutMs);
+
+    /**
+     * Upsert a batch of Asset documents, full or partial, to client WSO2 Api without blocking the caller.
+     *
+     * @param assets the asset fields to send, each keyed by {@code asset_tag}.
+     * @param credentials the credentials to use for the client.
+     * @param timeoutMs the timeout of the HTTP call, 0 for none.
+     * @return the per asset results, empty when the endpoint does not report them; cancelling it aborts the call.
+     */
+    CompletableFuture<List<AssetResult>> sendAssetsAsync(List<JsonNode> assets, final ApiClientCredentials credentials, long timeoutMs);
+
     /**
      *
      * Check can get Authentication token with given Credentials
@@ -36,4 +129,10 @@ public interface ApiClientProvider {
      * @param credentials the credentials to use for the client
      */
     void validate(ApiClientCredentials credentials) throws ApiException;
+
+    /**
+     *
+     * Statistics of the HTTP connection pool and dispatcher used to reach the client
+     */
+    ApiClientStats getStats();
 }
@@ -1,12 +1,19 @@
 package org.opennms.plugins.servicenow.client;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import org.opennms.plugins.servicenow.model.AccessPoint;
 import org.opennms.plugins.servicenow.model.Alert;
+import org.opennms.plugins.servicenow.model.AssetResult;
 import org.opennms.plugins.servicenow.model.NetworkDevice;
 import org.opennms.plugins.servicenow.model.TokenResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
 public class ApiClientProviderImpl implements ApiClientProvider {
 
     private static final Logger LOG = LoggerFactory.getLogger(ApiClientProviderImpl.class);
@@ -15,74 +22,231 @@ public class ApiClientProviderImpl implements ApiClientProvider {
     private final String assetEndPoint;
 
     public ApiClientProviderImpl(String tokenEndPoint, String alertEndPoint, String assetEndPoint) {
+        this(tokenEndPoint, alertEndPoint, assetEndPoint, new ApiClient());
+    }
+
+    public ApiClientProviderImpl(String tokenEndPoint,
+                                 String alertEndPoint,
+                                 String assetEndPoint,
+                                 int poolMaxIdle,
+                                 long poolKeepAliveMs,
+                                 int maxRequests,
+                                 int maxRequestsPerHost,
+                                 boolean http2) {
+        this(tokenEndPoint, alertEndPoint, assetEndPoint, new ApiClient(poolMaxIdle, poolKeepAliveMs, maxRequests, maxRequestsPerHost, http2));
+    }
+
+    private ApiClientProviderImpl(String tokenEndPoint, String alertEndPoint, String assetEndPoint, ApiClient apiClient) {
         this.tokenEndPoint = tokenEndPoint;
         this.alertEndPoint = alertEndPoint;
         this.assetEndPoint = assetEndPoint;
+        this.apiClient = apiClient;
+        this.tokenHolder = new TokenHolder(c -> apiClient.getAccessToken(c, tokenEndPoint));
     }
 
-    private final ApiClient apiClient = new ApiClient();
-    private ApiClientCredentials credentials;
-    private long expiresAt = System.currentTimeMillis();
+    private final ApiClient apiClient;
+    private final TokenHolder tokenHolder;
+
+    private interface TokenCall<T> {
+        T call(String accessToken) throws ApiException;
+    }
 
     public TokenResponse getTokenResponse() {
-        return tokenResponse;
+        TokenHolder.Token token = tokenHolder.getToken();
+        return token == null ? null : token.response();
     }
 
     public long getExpiresAt() {
-        return expiresAt;
+        TokenHolder.Token token = tokenHolder.getToken();
+        return token == null ? 0 : token.expiresAt();
     }
 
     public ApiClientCredentials getCredentials() {
-        return credentials;
+        TokenHolder.Token token = tokenHolder.getToken();
+        return token == null ? null : token.credentials();
     }
 
     public ApiClient getApiClient() {
         return apiClient;
     }
 
-    private TokenResponse tokenResponse;
+    public void close() {
+        tokenHolder.close();
+    }
 
-    private void getTokenResponse(ApiClientCredentials credentials) throws ApiException {
-        if (this.credentials != null && this.credentials.equals(credentials) ) {
-            LOG.debug("client: found: {}", credentials);
-            checkExpiresAt();
-        } else {
-            LOG.debug("client: found new: {}", credentials);
-            this.credentials = credentials;
-            this.tokenResponse = apiClient.getAccessToken(credentials, tokenEndPoint);
-            this.expiresAt = System.currentTimeMillis() + (tokenResponse.getExpires_in() * 1000L);
-        }
+    private static boolean isTokenRejected(Throwable t) {
+        return t instanceof ApiException && ((ApiException) t).getErrCode() == 401;
     }
 
-    private void checkExpiresAt() {
-        long now = System.currentTimeMillis();
-        if ( now >= expiresAt - 5000) { // 5 second buffer
+    /**
+     * Runs the call with the current token. When the token is rejected the call is repeated once
+     * with a fresh token.
+     */
+    private <T> T withToken(ApiClientCredentials credentials, TokenCall<T> call) throws ApiException {
+        TokenHolder.Token token = tokenHolder.get(credentials);
+        try {
+            return call.call(token.response().getAccessToken());
+        } catch (ApiException e) {
+            if (!isTokenRejected(e)) {
+                throw e;
+            }
+            LOG.warn("withToken: token rejected, retrying with a new token: {}", credentials);
+            TokenHolder.Token fresh;
             try {
-                this.tokenResponse = apiClient.getAccessToken(credentials, tokenEndPoint);
-                this.expiresAt = System.currentTimeMillis() + (tokenResponse.getExpires_in() * 1000L);
-            } catch (ApiException e) {
-                LOG.error("check: access: code: {}, message: {}", e.getCode(), e.getResponseBody(),e);
+                fresh = tokenHolder.invalidate(credentials, token).join();
+            } catch (CompletionException ce) {
+                if (ce.getCause() instanceof ApiException) {
+                    throw (ApiException) ce.getCause();
+                }
+                throw ce;
             }
+            return call.call(fresh.response().getAccessToken());
         }
     }
 
+    /**
+     * Asynchronous version of {@link #withToken}. Cancelling the returned future cancels the call in flight.
+     */
+    private <T> CompletableFuture<T> withTokenAsync(ApiClientCredentials credentials, Function<String, CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<?>[] inFlight = new CompletableFuture<?>[1];
+        result.whenComplete((v, t) -> {
+            CompletableFuture<?> current;
+            synchronized (inFlight) {
+                current = inFlight[0];
+            }
+            if (current != null && !current.isDone()) {
+                current.cancel(true);
+            }
+        });
+        tokenHolder.getAsync(credentials).whenComplete((token, t) -> {
+            if (t != null) {
+                result.completeExceptionally(unwrap(t));
+                return;
+            }
+            attempt(credentials, token, call, result, inFlight, true);
+        });
+        return result;
+    }
+
+    private <T> void attempt(ApiClientCredentials credentials,
+                             TokenHolder.Token token,
+                             Function<String, CompletableFuture<T>> call,
+                             CompletableFuture<T> result,
+                             CompletableFuture<?>[] inFlight,
+                             boolean retryOnReject) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<T> future;
+        try {
+            future = call.apply(token.response().getAccessToken());
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        synchronized (inFlight) {
+            inFlight[0] = future;
+        }
+        if (result.isDone()) {
+            future.cancel(true);
+            return;
+        }
+        future.whenComplete((v, t) -> {
+            if (t == null) {
+                result.complete(v);
+                return;
+            }
+            Throwable cause = unwrap(t);
+            if (!retryOnReject || !isTokenRejected(cause) || result.isDone()) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            LOG.warn("withTokenAsync: token rejected, retrying with a new token: {}", credentials);
+            tokenHolder.invalidate(credentials, token).whenComplete((fresh, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(unwrap(e));
+                } else {
+                    attempt(credentials, fresh, call, result, inFlight, false);
+                }
+            });
+        });
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
 
     @Override
     public void send(Alert alert, ApiClientCredentials credentials) throws ApiException {
-        getTokenResponse(credentials);
-        this.apiClient.sendAlert(alert, credentials, tokenResponse.getAccessToken(), alertEndPoint);
+        withToken(credentials, token -> {
+            this.apiClient.sendAlert(alert, credentials, token, alertEndPoint);
+            return null;
+        });
+    }
+
+    @Override
+    public void send(List<Alert> alerts, ApiClientCredentials credentials) throws ApiException {
+        withToken(credentials, token -> {
+            this.apiClient.sendAlerts(alerts, credentials, token, alertEndPoint);
+            return null;
+        });
     }
 
     @Override
     public void send(NetworkDevice networkDevice, ApiClientCredentials credentials) throws ApiException {
-        getTokenResponse(credentials);
-        this.apiClient.sendAsset(networkDevice, credentials, tokenResponse.getAccessToken(), assetEndPoint);
+        withToken(credentials, token -> {
+            this.apiClient.sendAsset(networkDevice, credentials, token, assetEndPoint);
+            return null;
+        });
     }
 
     @Override
     public void send(AccessPoint accessPoint, ApiClientCredentials credentials) throws ApiException {
-        getTokenResponse(credentials);
-        this.apiClient.sendAsset(accessPoint, credentials, tokenResponse.getAccessToken(), assetEndPoint);
+        withToken(credentials, token -> {
+            this.apiClient.sendAsset(accessPoint, credentials, token, assetEndPoint);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAsync(Alert alert, ApiClientCredentials credentials, long timeoutMs) {
+        return withTokenAsync(credentials, token -> this.apiClient.sendAlertAsync(alert, credentials, token, alertEndPoint, timeoutMs));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAsync(List<Alert> alerts, ApiClientCredentials credentials, long timeoutMs) {
+        return withTokenAsync(credentials, token -> this.apiClient.sendAlertsAsync(alerts, credentials, token, alertEndPoint, timeoutMs));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAsync(NetworkDevice networkDevice, ApiClientCredentials credentials, long timeoutMs) {
+        return withTokenAsync(credentials, token -> this.apiClient.sendAssetAsync(networkDevice, credentials, token, assetEndPoint, timeoutMs));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAsync(AccessPoint accessPoint, ApiClientCredentials credentials, long timeoutMs) {
+        return withTokenAsync(credentials, token -> this.apiClient.sendAssetAsync(accessPoint, credentials, token, assetEndPoint, timeoutMs));
+    }
+
+    @Override
+    public CompletableFuture<List<AssetResult>> sendNetworkDevicesAsync(List<NetworkDevice> networkDevices, ApiClientCredentials credentials, long timeoutMs) {
+        return withTokenAsync(credentials, token -> this.apiClient.sendAssetsAsync(networkDevices, credentials, token, assetEndPoint, timeoutMs));
+    }
+
+    @Override
+    public CompletableFuture<List<AssetResult>> sendAccessPointsAsync(List<AccessPoint> accessPoints, ApiClientCredentials credentials, long timeoutMs) {
+        return withTokenAsync(credentials, token -> this.apiClient.sendAssetsAsync(accessPoints, credentials, token, assetEndPoint, timeoutMs));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAssetAsync(JsonNode asset, ApiClientCredentials credentials, long timeoutMs) {
+        return withTokenAsync(credentials, token -> this.apiClient.sendAssetAsync(asset, credentials, token, assetEndPoint, timeoutMs));
+    }
+
+    @Override
+    public CompletableFuture<List<AssetResult>> sendAssetsAsync(List<JsonNode> assets, ApiClientCredentials credentials, long timeoutMs) {
+        return withTokenAsync(credentials, token -> this.apiClient.sendAssetsAsync(assets, credentials, token, assetEndPoint, timeoutMs));
     }
 
     @Override
@@ -91,4 +255,9 @@ public class ApiClientProviderImpl implements ApiClientProvider {
         LOG.info("validate: validated: {}", credentials);
     }
 
+    @Override
+    public ApiClientStats getStats() {
+        return apiClient.getStats();
+    }
+
 }
@@ -0,0 +1,13 @@
+package org.opennms.plugins.servicenow.client;
+
+/**
+ * Point in time view of the HTTP connection pool and dispatcher shared by the ServiceNow clients.
+ */
+public record ApiClientStats(int connections,
+                             int idleConnections,
+                             int runningCalls,
+                             int queuedCalls,
+                             int maxRequests,
+                             int maxRequestsPerHost,
+                             int clients) {
+}
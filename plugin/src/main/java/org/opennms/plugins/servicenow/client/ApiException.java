@@ -58,4 +58,16 @@ public class ApiException extends Exception {
     public int getErrCode() {
         return this.errCode;
     }
+
+    /**
+     * A rejection is a 4xx answer to the payload: sending the same payload again cannot succeed.
+     * Authentication (401, 403), request timeout (408) and rate limiting (429) are not rejections.
+     *
+     * @return true if the request was rejected
+     */
+    public boolean isRejected() {
+        // the client reports the HTTP status of an unexpected answer as errCode
+        int status = errCode != 0 ? errCode : code;
+        return status >= 400 && status < 500 && status != 401 && status != 403 && status != 408 && status != 429;
+    }
 }
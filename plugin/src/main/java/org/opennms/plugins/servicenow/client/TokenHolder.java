@@ -0,0 +1,166 @@
+package org.opennms.plugins.servicenow.client;
+
+import org.opennms.plugins.servicenow.model.TokenResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the OAuth access token shared by all sends.
+ * <p>
+ * Reads are lock free. When the token is missing, expiring or was rejected, a single refresh is started
+ * and every concurrent caller waits on it instead of requesting a token of its own.
+ * After each refresh, a new one is scheduled in the background ahead of the expiry, so callers
+ * normally never wait for a token.
+ */
+public class TokenHolder {
+    private static final Logger LOG = LoggerFactory.getLogger(TokenHolder.class);
+
+    // a token this close to its expiry is no longer handed out (or past 90% of its lifetime, when shorter)
+    static final long EXPIRY_MARGIN_MS = 5000L;
+    // background refresh starts this close to the expiry (or at 90% of the lifetime, when shorter)
+    static final long REFRESH_AHEAD_MS = 60000L;
+
+    /**
+     * @param usableUntil the time the token is no longer handed out, ahead of {@code expiresAt}
+     */
+    public record Token(ApiClientCredentials credentials, TokenResponse response, long expiresAt, long usableUntil) {
+        boolean isUsable(ApiClientCredentials credentials, long now) {
+            return this.credentials.equals(credentials) && now < usableUntil;
+        }
+    }
+
+    public interface TokenSource {
+        TokenResponse getAccessToken(ApiClientCredentials credentials) throws ApiException;
+    }
+
+    private final TokenSource source;
+    private final ScheduledExecutorService refreshThread = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "servicenow-token-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Token token;
+    private CompletableFuture<Token> refreshing;
+    private ApiClientCredentials refreshingFor;
+    private ScheduledFuture<?> scheduledRefresh;
+
+    public TokenHolder(TokenSource source) {
+        this.source = source;
+    }
+
+    public Token getToken() {
+        return token;
+    }
+
+    /**
+     * Returns a usable token for the credentials, waiting for the refresh in flight if there is none.
+     */
+    public Token get(ApiClientCredentials credentials) throws ApiException {
+        try {
+            return getAsync(credentials).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ApiException) {
+                throw (ApiException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a usable token for the credentials without blocking: the future completes with the current token
+     * or with the refresh in flight, which is started if needed.
+     */
+    public CompletableFuture<Token> getAsync(ApiClientCredentials credentials) {
+        Token current = token;
+        if (current != null && current.isUsable(credentials, System.currentTimeMillis())) {
+            return CompletableFuture.completedFuture(current);
+        }
+        return refresh(credentials, current);
+    }
+
+    /**
+     * Discards the token rejected by the server, unless it was already replaced, and returns a fresh one.
+     */
+    public CompletableFuture<Token> invalidate(ApiClientCredentials credentials, Token rejected) {
+        LOG.info("invalidate: token rejected for: {}", credentials);
+        return refresh(credentials, rejected);
+    }
+
+    public synchronized void close() {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        refreshThread.shutdownNow();
+    }
+
+    /**
+     * Starts a refresh replacing {@code stale}, or joins the one in flight for the same credentials.
+     * When the token was already replaced by another caller the new token is returned directly.
+     */
+    private synchronized CompletableFuture<Token> refresh(ApiClientCredentials credentials, Token stale) {
+        Token current = token;
+        if (current != null && current != stale && current.isUsable(credentials, System.currentTimeMillis())) {
+            return CompletableFuture.completedFuture(current);
+        }
+        if (refreshing != null && refreshing.isDone()) {
+            refreshing = null;
+        }
+        // a refresh for other credentials goes on for its own callers, but its token is not kept
+        if (refreshing == null || !refreshingFor.equals(credentials)) {
+            final CompletableFuture<Token> future = new CompletableFuture<>();
+            refreshing = future;
+            refreshingFor = credentials;
+            refreshThread.execute(() -> fetch(credentials, future));
+        }
+        return refreshing;
+    }
+
+    private void fetch(ApiClientCredentials credentials, CompletableFuture<Token> future) {
+        try {
+            LOG.debug("fetch: requesting token for: {}", credentials);
+            TokenResponse response = source.getAccessToken(credentials);
+            long now = System.currentTimeMillis();
+            long lifetime = response.getExpires_in() * 1000L;
+            Token fetched = new Token(credentials, response, now + lifetime, now + lifetime - Math.min(EXPIRY_MARGIN_MS, lifetime / 10));
+            synchronized (this) {
+                if (refreshing == future) {
+                    token = fetched;
+                    scheduleRefresh(fetched, now);
+                }
+            }
+            future.complete(fetched);
+        } catch (ApiException | RuntimeException e) {
+            LOG.error("fetch: access: code: {}, errCode: {}, message: {}", e instanceof ApiException ? ((ApiException) e).getCode() : 0,
+                    e instanceof ApiException ? ((ApiException) e).getErrCode() : 0, e.getMessage(), e);
+            Token current = token;
+            // keep using a token that is still valid when the refresh fails
+            if (current != null && current.isUsable(credentials, System.currentTimeMillis())) {
+                future.complete(current);
+            } else {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void scheduleRefresh(Token fetched, long now) {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        long lifetime = fetched.expiresAt() - now;
+        long delay = lifetime - Math.min(REFRESH_AHEAD_MS, lifetime / 10);
+        if (delay <= 0 || refreshThread.isShutdown()) {
+            return;
+        }
+        scheduledRefresh = refreshThread.schedule(() -> {
+            LOG.debug("scheduleRefresh: refreshing token ahead of expiry for: {}", fetched.credentials());
+            refresh(fetched.credentials(), fetched);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -21,6 +21,8 @@ public class ConnectionManager {
     public static final  String alias = "Default";
     private final RuntimeInfo runtimeInfo;
     private final SecureCredentialsVault vault;
+    // credentials read from the vault, null when not loaded yet
+    private volatile Optional<ApiClientCredentials> credentials;
 
     public ConnectionManager(final RuntimeInfo runtimeInfo,
                              final SecureCredentialsVault vault) {
@@ -44,6 +46,34 @@ public class ConnectionManager {
         return Optional.of(conn);
     }
 
+    /**
+     * Returns the credentials of the connection, read from the vault on first use and then cached
+     * until the connection is saved or deleted.
+     *
+     * @return The credentials or {@code Optional#empty()} if no connection exists
+     */
+    public Optional<ApiClientCredentials> getCredentials() {
+        Optional<ApiClientCredentials> cached = this.credentials;
+        if (cached != null) {
+            return cached;
+        }
+        synchronized (this) {
+            if (this.credentials == null) {
+                this.ensureCore();
+                this.credentials = Optional.ofNullable(this.vault.getCredentials(PREFIX + alias))
+                        .map(ConnectionManager::fromStore);
+            }
+            return this.credentials;
+        }
+    }
+
+    /**
+     * Drops the cached credentials, so that the next {@link #getCredentials()} reads the vault again.
+     */
+    public synchronized void invalidate() {
+        this.credentials = null;
+    }
+
     /**
      * Creates a basic authentication connection under the given alias.
      *
@@ -174,11 +204,13 @@ public class ConnectionManager {
         @Override
         public void save() {
             ConnectionManager.this.vault.setCredentials(PREFIX + ConnectionManager.alias, this.asCredentials());
+            ConnectionManager.this.invalidate();
         }
 
         @Override
         public void delete() {
             ConnectionManager.this.vault.deleteCredentials(PREFIX + ConnectionManager.alias);
+            ConnectionManager.this.invalidate();
         }
 
         private Credentials asCredentials() {
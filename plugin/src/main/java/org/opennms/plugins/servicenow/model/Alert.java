@@ -5,8 +5,12 @@ import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 
 import java.io.IOException;
@@ -35,6 +39,7 @@ public class Alert {
 
     @JsonProperty("severity")
     @JsonSerialize(using = Severity.Serializer.class)
+    @JsonDeserialize(using = Severity.Deserializer.class)
     private Severity severity;
 
     @JsonProperty("description")
@@ -60,6 +65,7 @@ public class Alert {
 
     @JsonProperty("status")
     @JsonSerialize(using = Status.Serializer.class)
+    @JsonDeserialize(using = Status.Deserializer.class)
     private Status status;
 
     @JsonProperty("u_parental_node_opennms")
@@ -249,6 +255,23 @@ public class Alert {
             }
         }
 
+        public static class Deserializer extends StdDeserializer<Severity> {
+            protected Deserializer() {
+                super(Severity.class);
+            }
+
+            @Override
+            public Severity deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+                String value = p.getValueAsString();
+                for (Severity severity : Severity.values()) {
+                    if (severity.getText().equals(value)) {
+                        return severity;
+                    }
+                }
+                throw new IOException("Cannot deserialize Severity from value: " + value);
+            }
+        }
+
     }
 
     public enum Status {
@@ -275,6 +298,23 @@ public class Alert {
                     jsonGenerator.writeString(status.getText());
             }
         }
+
+        public static class Deserializer extends StdDeserializer<Status> {
+            protected Deserializer() {
+                super(Status.class);
+            }
+
+            @Override
+            public Status deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+                String value = p.getValueAsString();
+                for (Status status : Status.values()) {
+                    if (status.getText().equals(value)) {
+                        return status;
+                    }
+                }
+                throw new IOException("Cannot deserialize Status from value: " + value);
+            }
+        }
     }
 
 }
@@ -0,0 +1,61 @@
+package org.opennms.plugins.servicenow.model;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Outcome of a single asset in a batch upsert, as returned by the asset endpoint.
+ */
+@JsonAutoDetect(fieldVisibility=JsonAutoDetect.Visibility.NONE)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class AssetResult {
+
+    @JsonProperty("asset_tag")
+    private String assetTag;
+
+    @JsonProperty("status")
+    private String status;
+
+    @JsonProperty("status_message")
+    private String statusMessage;
+
+    public String getAssetTag() {
+        return assetTag;
+    }
+
+    public void setAssetTag(String assetTag) {
+        this.assetTag = assetTag;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getStatusMessage() {
+        return statusMessage;
+    }
+
+    public void setStatusMessage(String statusMessage) {
+        this.statusMessage = statusMessage;
+    }
+
+    public boolean isError() {
+        return "error".equalsIgnoreCase(status);
+    }
+
+    @Override
+    public String toString() {
+        return "AssetResult{" +
+                "assetTag='" + assetTag + '\'' +
+                ", status='" + status + '\'' +
+                ", statusMessage='" + statusMessage + '\'' +
+                '}';
+    }
+}
@@ -2,6 +2,7 @@ package org.opennms.plugins.servicenow.shell;
 
 import org.apache.karaf.shell.api.action.Action;
 import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
 import org.apache.karaf.shell.api.action.lifecycle.Reference;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.apache.karaf.shell.api.console.Session;
@@ -21,9 +22,16 @@ public class EdgeServiceRunCommand implements Action {
     @Reference
     private EdgeService service;
 
+    @Option(name = "--incremental", description = "search again only the gateways affected by topology changes")
+    private boolean incremental = false;
+
     @Override
     public Object execute() {
-        service.run();
+        if (incremental) {
+            service.runIncremental();
+        } else {
+            service.run();
+        }
         return null;
     }
 
@@ -0,0 +1,40 @@
+package org.opennms.plugins.servicenow.shell;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.api.console.Session;
+import org.apache.karaf.shell.support.table.Col;
+import org.apache.karaf.shell.support.table.ShellTable;
+import org.opennms.plugins.servicenow.client.ApiClientProvider;
+import org.opennms.plugins.servicenow.client.ApiClientStats;
+
+@Command(scope = "opennms-service-now", name = "get-http-stats", description = "Get HTTP connection pool and dispatcher statistics.")
+@Service
+public class GetHttpStatsCommand implements Action {
+
+    @Reference
+    private Session session;
+
+    @Reference
+    private ApiClientProvider apiClientProvider;
+
+    @Override
+    public Object execute() {
+        final ApiClientStats stats = apiClientProvider.getStats();
+        final var table = new ShellTable()
+                .size(session.getTerminal().getWidth() - 1)
+                .column(new Col("Metric").maxSize(32))
+                .column(new Col("Value").maxSize(16));
+        table.addRow().addContent("connections", stats.connections());
+        table.addRow().addContent("idleConnections", stats.idleConnections());
+        table.addRow().addContent("runningCalls", stats.runningCalls());
+        table.addRow().addContent("queuedCalls", stats.queuedCalls());
+        table.addRow().addContent("maxRequests", stats.maxRequests());
+        table.addRow().addContent("maxRequestsPerHost", stats.maxRequestsPerHost());
+        table.addRow().addContent("clients", stats.clients());
+        table.print(System.out, true);
+        return null;
+    }
+}
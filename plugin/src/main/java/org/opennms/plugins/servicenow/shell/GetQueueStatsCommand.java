@@ -0,0 +1,45 @@
+package org.opennms.plugins.servicenow.shell;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.api.console.Session;
+import org.apache.karaf.shell.support.table.Col;
+import org.apache.karaf.shell.support.table.ShellTable;
+import org.opennms.plugins.servicenow.AlarmForwarder;
+import org.opennms.plugins.servicenow.AssetForwarder;
+import org.opennms.plugins.servicenow.QueueStats;
+
+import java.util.List;
+
+@Command(scope = "opennms-service-now", name = "get-queue-stats", description = "Get alarm and asset send queue statistics.")
+@Service
+public class GetQueueStatsCommand implements Action {
+
+    @Reference
+    private Session session;
+
+    @Reference
+    private AlarmForwarder alarmForwarder;
+
+    @Reference
+    private AssetForwarder assetForwarder;
+
+    @Override
+    public Object execute() {
+        final var table = new ShellTable()
+                .size(session.getTerminal().getWidth() - 1)
+                .column(new Col("Queue").maxSize(8))
+                .column(new Col("Size").maxSize(12))
+                .column(new Col("Capacity").maxSize(12))
+                .column(new Col("Policy").maxSize(32))
+                .column(new Col("Dropped").maxSize(12))
+                .column(new Col("Spilled").maxSize(12));
+        for (QueueStats stats : List.of(alarmForwarder.getQueueStats(), assetForwarder.getQueueStats())) {
+            table.addRow().addContent(stats.name(), stats.size(), stats.capacity(), stats.policy(), stats.dropped(), stats.spilled());
+        }
+        table.print(System.out, true);
+        return null;
+    }
+}
@@ -8,6 +8,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.opennms.plugins.servicenow.client.ApiClientProvider;
 import org.opennms.plugins.servicenow.client.ApiClientProviderImpl;
+import org.opennms.plugins.servicenow.client.ClientManager;
 import org.opennms.plugins.servicenow.connection.Connection;
 import org.opennms.plugins.servicenow.connection.ConnectionManager;
 import org.opennms.plugins.servicenow.model.TokenResponse;
@@ -44,10 +45,10 @@ public class AlarmForwarderIT {
         EdgeService service = mock(EdgeService.class);
         org.opennms.integration.api.v1.events.EventForwarder eventForwarder = mock(org.opennms.integration.api.v1.events.EventForwarder.class);
         ApiClientProvider apiClientProvider = new ApiClientProviderImpl(TOKEN_END_POINT, ALERT_END_POINT, ASSET_END_POINT);
-        AlarmSender alarmSender = new AlarmSender(connectionManager, apiClientProvider, new PluginEventForwarder(eventForwarder), 3, 2000L, 30000L);
+        AlarmSender alarmSender = new AlarmSender(connectionManager, apiClientProvider, new PluginEventForwarder(eventForwarder), new AlarmSpool("target/servicenow", false, 8388608L, 100L), 3, 2000L, 30000L, 1, 1, 0L);
         AlarmForwarder alarmForwarder = new AlarmForwarder("CategoryA", alarmSender, service);
 
-        when(connectionManager.getConnection()).thenReturn(Optional.of(new ConnectionTest()));
+        when(connectionManager.getCredentials()).thenReturn(Optional.of(ClientManager.asApiClientCredentials(new ConnectionTest())));
         TokenResponse response = new TokenResponse();
         response.setAccessToken("accessToken");
         response.setExpires_in(3600);
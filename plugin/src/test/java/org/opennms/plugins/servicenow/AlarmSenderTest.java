@@ -0,0 +1,356 @@
+package org.opennms.plugins.servicenow;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.integration.api.v1.events.EventForwarder;
+import org.opennms.integration.api.v1.model.Alarm;
+import org.opennms.integration.api.v1.model.Severity;
+import org.opennms.integration.api.v1.model.immutables.ImmutableAlarm;
+import org.opennms.integration.api.v1.model.immutables.ImmutableNode;
+import org.opennms.integration.api.v1.model.immutables.ImmutableNodeAssetRecord;
+import org.opennms.plugins.servicenow.client.ApiClientCredentials;
+import org.opennms.plugins.servicenow.client.ApiClientProvider;
+import org.opennms.plugins.servicenow.client.ApiException;
+import org.opennms.plugins.servicenow.connection.ConnectionManager;
+import org.opennms.plugins.servicenow.model.Alert;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AlarmSenderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Alarm alarm(int nodeId, Severity severity) {
+        return ImmutableAlarm.newBuilder()
+                .setId(nodeId)
+                .setReductionKey(AlarmForwarder.ALARM_UEI_NODE_DOWN + "::" + nodeId)
+                .setFirstEventTime(new Date())
+                .setLastEventTime(new Date())
+                .setSeverity(severity)
+                .setDescription("Node down")
+                .setLogMessage("Node down")
+                .setNode(ImmutableNode.newBuilder()
+                        .setId(nodeId)
+                        .setLocation("Default")
+                        .setLabel("node-" + nodeId)
+                        .setCategories(List.of("Minnovo"))
+                        .setAssetRecord(ImmutableNodeAssetRecord.newBuilder().build())
+                        .build())
+                .build();
+    }
+
+    private static void enqueue(AlarmSender sender, Alarm alarm) {
+        sender.enqueue(alarm, alarm.getNode(), null);
+    }
+
+    private record Call(List<Alert> alerts, CompletableFuture<Void> result) {
+        Alert alert() {
+            return alerts.get(0);
+        }
+    }
+
+    private static AlarmSender newSender(BlockingQueue<Call> calls, int window) {
+        return newSender(calls, window, 1, 0L);
+    }
+
+    private static AlarmSender newSender(BlockingQueue<Call> calls, int window, int batchSize, long batchLingerMs) {
+        return newSender(calls, mock(PluginEventForwarder.class), new AlarmSpool("target/servicenow", false, 8388608L, 100L),
+                window, batchSize, batchLingerMs);
+    }
+
+    // a client whose sends complete only when the test completes them
+    private static AlarmSender newSender(BlockingQueue<Call> calls, PluginEventForwarder events, AlarmSpool spool,
+                                         int window, int batchSize, long batchLingerMs) {
+        ConnectionManager connectionManager = mock(ConnectionManager.class);
+        when(connectionManager.getCredentials()).thenReturn(Optional.of(ApiClientCredentials.builder()
+                .withUrl("https://servicenow.example.org")
+                .withUsername("opennms")
+                .withPassword("secret")
+                .withIgnoreSslCertificateValidation(false)
+                .build()));
+        ApiClientProvider apiClientProvider = mock(ApiClientProvider.class);
+        when(apiClientProvider.sendAsync(any(Alert.class), any(ApiClientCredentials.class), anyLong())).thenAnswer(invocation -> {
+            Call call = new Call(List.of(invocation.getArgument(0)), new CompletableFuture<>());
+            calls.add(call);
+            return call.result();
+        });
+        when(apiClientProvider.sendAsync(anyList(), any(ApiClientCredentials.class), anyLong())).thenAnswer(invocation -> {
+            Call call = new Call(invocation.getArgument(0), new CompletableFuture<>());
+            calls.add(call);
+            return call.result();
+        });
+        return new AlarmSender(connectionManager, apiClientProvider, events, spool, 3, 0L, 30000L, window, batchSize, batchLingerMs);
+    }
+
+    @Test
+    public void sendsAtMostWindowAlarmsAtOnce() throws InterruptedException {
+        BlockingQueue<Call> calls = new LinkedBlockingQueue<>();
+        AlarmSender sender = newSender(calls, 2);
+        for (int nodeId = 1; nodeId <= 4; nodeId++) {
+            enqueue(sender, alarm(nodeId, Severity.MAJOR));
+        }
+        sender.start();
+        try {
+            Call first = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(first);
+            Assert.assertNotNull(calls.poll(5, TimeUnit.SECONDS));
+            Assert.assertNull("the window is full", calls.poll(200, TimeUnit.MILLISECONDS));
+
+            first.result().complete(null);
+            Assert.assertNotNull(calls.poll(5, TimeUnit.SECONDS));
+            Assert.assertNull("the window is full", calls.poll(200, TimeUnit.MILLISECONDS));
+        } finally {
+            sender.stop();
+        }
+    }
+
+    @Test
+    public void sendsUpdatesOfAnAlarmInOrder() throws InterruptedException {
+        BlockingQueue<Call> calls = new LinkedBlockingQueue<>();
+        AlarmSender sender = newSender(calls, 4);
+        sender.start();
+        try {
+            enqueue(sender, alarm(1, Severity.MINOR));
+            Call first = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(first);
+
+            // queued after the first update was taken: dispatched, but chained behind the send in flight
+            enqueue(sender, alarm(1, Severity.CRITICAL));
+            Assert.assertNull("the update waits for the previous send", calls.poll(200, TimeUnit.MILLISECONDS));
+
+            first.result().complete(null);
+            Call second = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(second);
+            Assert.assertEquals(AlarmForwarder.toAlert(alarm(1, Severity.MINOR), null).getSeverity(), first.alert().getSeverity());
+            Assert.assertEquals(AlarmForwarder.toAlert(alarm(1, Severity.CRITICAL), null).getSeverity(), second.alert().getSeverity());
+        } finally {
+            sender.stop();
+        }
+    }
+
+    @Test
+    public void requeuesFailedAlertUnlessSuperseded() throws InterruptedException {
+        BlockingQueue<Call> calls = new LinkedBlockingQueue<>();
+        AlarmSender sender = newSender(calls, 4);
+        sender.start();
+        try {
+            enqueue(sender, alarm(1, Severity.MINOR));
+            Call first = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(first);
+            first.result().completeExceptionally(new IllegalStateException("connection reset"));
+
+            // nothing newer for the alarm: the failed alert is sent again
+            Call retried = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(retried);
+            Assert.assertEquals(first.alert().getSeverity(), retried.alert().getSeverity());
+
+            // a newer update is waiting behind the failed send: only the newer one is sent
+            enqueue(sender, alarm(1, Severity.CRITICAL));
+            retried.result().completeExceptionally(new IllegalStateException("connection reset"));
+            Call newer = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(newer);
+            Assert.assertEquals(AlarmForwarder.toAlert(alarm(1, Severity.CRITICAL), null).getSeverity(), newer.alert().getSeverity());
+            newer.result().complete(null);
+            Assert.assertNull(calls.poll(200, TimeUnit.MILLISECONDS));
+        } finally {
+            sender.stop();
+        }
+    }
+
+    @Test
+    public void givesUpAlertAfterMaxRetry() throws InterruptedException {
+        BlockingQueue<Call> calls = new LinkedBlockingQueue<>();
+        PluginEventForwarder events = mock(PluginEventForwarder.class);
+        AlarmSpool spool = new AlarmSpool(folder.getRoot().getAbsolutePath() + "/servicenow", true, 8388608L, 100L);
+        AlarmSender sender = newSender(calls, events, spool, 4, 1, 0L);
+        sender.start();
+        try {
+            enqueue(sender, alarm(1, Severity.MAJOR));
+            // the first send and one per retry
+            for (int attempt = 0; attempt <= 3; attempt++) {
+                Call call = calls.poll(5, TimeUnit.SECONDS);
+                Assert.assertNotNull(call);
+                call.result().completeExceptionally(new IllegalStateException("connection reset"));
+            }
+            Assert.assertNull(calls.poll(500, TimeUnit.MILLISECONDS));
+            // given up: it leaves the spool, so it is not sent again after a restart
+            Assert.assertEquals(0, spool.size());
+            verify(events, times(1)).sendAlarmFailed(eq(1), anyString(), anyString());
+        } finally {
+            sender.stop();
+        }
+    }
+
+    @Test
+    public void splitsBatchToIsolateFailingAlerts() throws InterruptedException {
+        BlockingQueue<Call> calls = new LinkedBlockingQueue<>();
+        AlarmSender sender = newSender(calls, 4, 2, 500L);
+        enqueue(sender, alarm(1, Severity.MAJOR));
+        enqueue(sender, alarm(2, Severity.MAJOR));
+        sender.start();
+        try {
+            Call batch = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(batch);
+            Assert.assertEquals(2, batch.alerts().size());
+
+            // an outage fails both halves too: the batch fails as a whole and is sent again as a batch
+            batch.result().completeExceptionally(new ApiException("doPost: Unexpected code: ", new RuntimeException(), 503, ""));
+            for (int half = 0; half < 2; half++) {
+                Call call = calls.poll(5, TimeUnit.SECONDS);
+                Assert.assertNotNull(call);
+                Assert.assertEquals(1, call.alerts().size());
+                call.result().completeExceptionally(new ApiException("doPost: Unexpected code: ", new RuntimeException(), 503, ""));
+            }
+            Call retried = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(retried);
+            Assert.assertEquals(2, retried.alerts().size());
+
+            // a rejection is split until the rejected alert is isolated, which is not sent again
+            retried.result().completeExceptionally(new ApiException("doPost: Unexpected code: ", new RuntimeException(), 400, "invalid"));
+            Call first = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(first);
+            Assert.assertEquals(1, first.alerts().size());
+            first.result().complete(null);
+            Call second = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(second);
+            Assert.assertEquals(1, second.alerts().size());
+            second.result().completeExceptionally(new ApiException("doPost: Unexpected code: ", new RuntimeException(), 400, "invalid"));
+            Assert.assertNull(calls.poll(500, TimeUnit.MILLISECONDS));
+        } finally {
+            sender.stop();
+        }
+    }
+
+    @Test
+    public void isolatesAlertFailingAlone() throws InterruptedException {
+        BlockingQueue<Call> calls = new LinkedBlockingQueue<>();
+        AlarmSender sender = newSender(calls, 4, 4, 500L);
+        for (int nodeId = 1; nodeId <= 4; nodeId++) {
+            enqueue(sender, alarm(nodeId, Severity.MAJOR));
+        }
+        sender.start();
+        try {
+            Call batch = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(batch);
+            Assert.assertEquals(4, batch.alerts().size());
+
+            // a script error on one record: the half holding it fails, the other half gets through
+            batch.result().completeExceptionally(new ApiException("doPost: Unexpected code: ", new RuntimeException(), 500, ""));
+            Call firstHalf = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(firstHalf);
+            Assert.assertEquals(2, firstHalf.alerts().size());
+            firstHalf.result().complete(null);
+            Call secondHalf = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(secondHalf);
+            Assert.assertEquals(2, secondHalf.alerts().size());
+            secondHalf.result().completeExceptionally(new ApiException("doPost: Unexpected code: ", new RuntimeException(), 500, ""));
+            Call third = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(third);
+            third.result().complete(null);
+            Call fourth = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(fourth);
+            Assert.assertEquals(1, fourth.alerts().size());
+            fourth.result().completeExceptionally(new ApiException("doPost: Unexpected code: ", new RuntimeException(), 500, ""));
+
+            // only the failing alert is sent again
+            Call retried = calls.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(retried);
+            Assert.assertEquals(1, retried.alerts().size());
+            Assert.assertSame(fourth.alert(), retried.alert());
+            retried.result().complete(null);
+            Assert.assertNull(calls.poll(500, TimeUnit.MILLISECONDS));
+        } finally {
+            sender.stop();
+        }
+    }
+
+    @Test
+    public void dropsOldestNonCriticalAlert() {
+        PluginEventForwarder events = mock(PluginEventForwarder.class);
+        AlarmSpool spool = new AlarmSpool(folder.getRoot().getAbsolutePath() + "/servicenow", false, 8388608L, 100L);
+        AlarmSender sender = new AlarmSender(null, null, events, spool, 3, 0L, 1000L, 1, 1, 0L, 2, "drop-oldest-non-critical");
+
+        enqueue(sender, alarm(1, Severity.MINOR));
+        enqueue(sender, alarm(2, Severity.CRITICAL));
+        enqueue(sender, alarm(3, Severity.MAJOR));
+        // an update of a queued alarm replaces it and never overflows
+        enqueue(sender, alarm(3, Severity.CRITICAL));
+
+        QueueStats stats = sender.getQueueStats();
+        Assert.assertEquals(2, stats.size());
+        Assert.assertEquals(1, stats.dropped());
+        verify(events).sendAlarmDropped(eq(1), eq(AlarmForwarder.ALARM_UEI_NODE_DOWN + "::1"), anyString());
+        verify(events, never()).sendAlarmDropped(eq(2), anyString(), anyString());
+    }
+
+    @Test
+    public void neverDropsQueuedClear() {
+        PluginEventForwarder events = mock(PluginEventForwarder.class);
+        AlarmSpool spool = new AlarmSpool(folder.getRoot().getAbsolutePath() + "/servicenow", false, 8388608L, 100L);
+        AlarmSender sender = new AlarmSender(null, null, events, spool, 3, 0L, 1000L, 1, 1, 0L, 2, "drop-oldest-non-critical");
+
+        enqueue(sender, alarm(1, Severity.CLEARED));
+        enqueue(sender, alarm(2, Severity.CRITICAL));
+        // only critical alerts are queued: the raise goes, not the older clear
+        enqueue(sender, alarm(3, Severity.MAJOR));
+        verify(events).sendAlarmDropped(eq(2), anyString(), anyString());
+        verify(events, never()).sendAlarmDropped(eq(1), anyString(), anyString());
+
+        enqueue(sender, alarm(4, Severity.CLEARED));
+        verify(events).sendAlarmDropped(eq(3), anyString(), anyString());
+        // only clears are queued: the new alert goes
+        enqueue(sender, alarm(5, Severity.CRITICAL));
+        verify(events).sendAlarmDropped(eq(5), anyString(), anyString());
+        verify(events, never()).sendAlarmDropped(eq(1), anyString(), anyString());
+        verify(events, never()).sendAlarmDropped(eq(4), anyString(), anyString());
+        Assert.assertEquals(2, sender.getQueueStats().size());
+    }
+
+    @Test
+    public void spillsToTheSpoolWhenFull() {
+        PluginEventForwarder events = new PluginEventForwarder(mock(EventForwarder.class));
+        AlarmSpool spool = new AlarmSpool(folder.getRoot().getAbsolutePath() + "/servicenow", true, 8388608L, 100L);
+        spool.open();
+        AlarmSender sender = new AlarmSender(null, null, events, spool, 3, 0L, 1000L, 1, 1, 0L, 1, "spill-to-disk");
+
+        enqueue(sender, alarm(1, Severity.MAJOR));
+        enqueue(sender, alarm(2, Severity.MAJOR));
+        enqueue(sender, alarm(3, Severity.MAJOR));
+
+        QueueStats stats = sender.getQueueStats();
+        Assert.assertEquals(1, stats.size());
+        Assert.assertEquals(2, stats.spilled());
+        Assert.assertEquals(0, stats.dropped());
+        // the spilled alerts stay pending in the spool
+        Assert.assertEquals(3, spool.size());
+        Assert.assertEquals(2, spool.read(List.of(2L, 3L)).size());
+        spool.close();
+    }
+
+    @Test
+    public void parsesOverflowPolicy() {
+        Assert.assertEquals(OverflowPolicy.DROP_CLEARS_FOR_MISSING_DOWNS, OverflowPolicy.parse(" drop-clears-for-missing-downs"));
+        Assert.assertEquals(OverflowPolicy.SPILL_TO_DISK, OverflowPolicy.parse("SPILL_TO_DISK"));
+        Assert.assertEquals("drop-oldest-non-critical", OverflowPolicy.DROP_OLDEST_NON_CRITICAL.toString());
+    }
+}
@@ -0,0 +1,112 @@
+package org.opennms.plugins.servicenow;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.plugins.servicenow.model.Alert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+
+public class AlarmSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Alert getAlert(String id, Alert.Status status) {
+        Alert alert = new Alert();
+        alert.setId(id);
+        alert.setSource("node1");
+        alert.setSeverity(Alert.Severity.MAJOR);
+        alert.setStatus(status);
+        return alert;
+    }
+
+    @Test
+    public void replaysAlertsNotAcknowledged() throws IOException {
+        String prefix = folder.getRoot().getAbsolutePath() + "/cache";
+        AlarmSpool spool = new AlarmSpool(prefix, true, 8388608L, 100L);
+        Assert.assertTrue(spool.open().isEmpty());
+        long a1 = spool.append(1, "a", getAlert("a", Alert.Status.DOWN));
+        long b1 = spool.append(2, "b", getAlert("b", Alert.Status.DOWN));
+        long a2 = spool.append(1, "a", getAlert("a", Alert.Status.UP));
+        spool.ack("b", b1);
+        Assert.assertEquals(2, spool.size());
+        spool.close();
+
+        spool = new AlarmSpool(prefix, true, 8388608L, 100L);
+        List<AlarmSpool.SpooledAlert> replayed = spool.open();
+        Assert.assertEquals(2, replayed.size());
+        Assert.assertEquals(a1, replayed.get(0).seq());
+        Assert.assertEquals(a2, replayed.get(1).seq());
+        Assert.assertEquals(1, replayed.get(1).nodeId());
+        Assert.assertEquals("a", replayed.get(1).reductionKey());
+        Assert.assertEquals(Alert.Status.UP, replayed.get(1).alert().getStatus());
+        Assert.assertEquals(Alert.Severity.MAJOR, replayed.get(1).alert().getSeverity());
+
+        // acknowledging the latest update of an alarm acknowledges the older ones
+        spool.ack("a", a2);
+        Assert.assertEquals(0, spool.size());
+        Assert.assertTrue(spool.append(3, "c", getAlert("c", Alert.Status.DOWN)) > a2);
+        spool.close();
+    }
+
+    @Test
+    public void skipsTornRecordAndDeletesAcknowledgedSegments() throws IOException {
+        String prefix = folder.getRoot().getAbsolutePath() + "/cache";
+        AlarmSpool spool = new AlarmSpool(prefix, true, 256L, 100L);
+        spool.open();
+        for (int i = 0; i < 20; i++) {
+            spool.ack("k" + i, spool.append(i, "k" + i, getAlert("k" + i, Alert.Status.DOWN)));
+        }
+        long last = spool.append(99, "last", getAlert("last", Alert.Status.DOWN));
+        spool.close();
+        File[] segments = Objects.requireNonNull(folder.getRoot().listFiles((d, n) -> n.startsWith("cache-alarm-spool-")));
+        Assert.assertEquals(1, segments.length);
+        Files.write(segments[0].toPath(), "{\"seq\":".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        spool = new AlarmSpool(prefix, true, 256L, 100L);
+        List<AlarmSpool.SpooledAlert> replayed = spool.open();
+        Assert.assertEquals(1, replayed.size());
+        Assert.assertEquals(last, replayed.get(0).seq());
+        spool.close();
+    }
+
+    @Test
+    public void compactsSegmentsPinnedByPendingAlert() throws IOException {
+        String prefix = folder.getRoot().getAbsolutePath() + "/cache";
+        AlarmSpool spool = new AlarmSpool(prefix, true, 256L, 100L);
+        spool.open();
+        long pinned = spool.append(0, "pinned", getAlert("pinned", Alert.Status.DOWN));
+        for (int i = 1; i <= 50; i++) {
+            spool.ack("k" + i, spool.append(i, "k" + i, getAlert("k" + i, Alert.Status.DOWN)));
+        }
+        Assert.assertEquals(1, spool.size());
+        Assert.assertEquals(1, spool.read(List.of(pinned)).size());
+        spool.close();
+        File[] segments = Objects.requireNonNull(folder.getRoot().listFiles((d, n) -> n.startsWith("cache-alarm-spool-")));
+        Assert.assertTrue("segments left: " + segments.length, segments.length <= 3);
+
+        spool = new AlarmSpool(prefix, true, 256L, 100L);
+        List<AlarmSpool.SpooledAlert> replayed = spool.open();
+        Assert.assertEquals(1, replayed.size());
+        Assert.assertEquals(pinned, replayed.get(0).seq());
+        Assert.assertEquals("pinned", replayed.get(0).reductionKey());
+        spool.close();
+    }
+
+    @Test
+    public void disabledSpoolIsNoop() {
+        AlarmSpool spool = new AlarmSpool(folder.getRoot().getAbsolutePath() + "/cache", false, 8388608L, 100L);
+        Assert.assertTrue(spool.open().isEmpty());
+        Assert.assertEquals(0, spool.append(1, "a", getAlert("a", Alert.Status.DOWN)));
+        spool.close();
+        Assert.assertEquals(0, Objects.requireNonNull(folder.getRoot().list()).length);
+    }
+}
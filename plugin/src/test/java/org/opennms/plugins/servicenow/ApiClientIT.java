@@ -102,9 +102,9 @@ public class ApiClientIT {
         ConnectionManager connectionManager = mock(ConnectionManager.class);
         EdgeService service = mock(EdgeService.class);
         org.opennms.integration.api.v1.events.EventForwarder eventForwarder = mock(org.opennms.integration.api.v1.events.EventForwarder.class);
-        AlarmSender alarmSender = new AlarmSender(connectionManager, apiClientProvider, new PluginEventForwarder(eventForwarder), 3, 2000L, 30000L);
+        AlarmSender alarmSender = new AlarmSender(connectionManager, apiClientProvider, new PluginEventForwarder(eventForwarder), new AlarmSpool("target/servicenow", false, 8388608L, 100L), 3, 2000L, 30000L, 1, 1, 0L);
         AlarmForwarder alarmForwarder = new AlarmForwarder("CategoryA", alarmSender, service);
-        when(connectionManager.getConnection()).thenReturn(Optional.of(new ConnectionTest()));
+        when(connectionManager.getCredentials()).thenReturn(Optional.of(ClientManager.asApiClientCredentials(new ConnectionTest())));
         alarmForwarder.handleNewOrUpdatedAlarm(AlarmForwarderTest.getAlarm());
         System.out.println("accessToken: " + apiClientProvider.getTokenResponse().getAccessToken());
         System.out.println("expiresIn: " + apiClientProvider.getTokenResponse().getExpires_in());
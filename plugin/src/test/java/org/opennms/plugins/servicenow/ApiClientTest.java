@@ -0,0 +1,112 @@
+package org.opennms.plugins.servicenow;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.plugins.servicenow.client.ApiClient;
+import org.opennms.plugins.servicenow.client.ApiClientCredentials;
+import org.opennms.plugins.servicenow.client.ApiException;
+import org.opennms.plugins.servicenow.model.AssetResult;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+
+public class ApiClientTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(0);
+
+    // nothing listens there: every request fails at once, after its client has been cached
+    private static ApiClientCredentials credentials(String username) {
+        return ApiClientCredentials.builder()
+                .withUrl("http://127.0.0.1:1")
+                .withUsername(username)
+                .withPassword("secret")
+                .withIgnoreSslCertificateValidation(true)
+                .build();
+    }
+
+    private static void request(ApiClient client, ApiClientCredentials credentials) {
+        try {
+            client.getAccessToken(credentials, "oauth2/token");
+            Assert.fail();
+        } catch (ApiException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void keepsClientInUseWhenOtherCredentialsAreUsed() {
+        ApiClient client = new ApiClient();
+        ApiClientCredentials live = credentials("opennms");
+        request(client, live);
+        Assert.assertEquals(1, client.getStats().clients());
+
+        // validating other credentials does not replace the client of the live ones
+        request(client, credentials("validate"));
+        request(client, live);
+        Assert.assertEquals(2, client.getStats().clients());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedClient() {
+        ApiClient client = new ApiClient();
+        for (int i = 0; i < ApiClient.MAX_CLIENTS + 3; i++) {
+            request(client, credentials("user" + i));
+        }
+        Assert.assertEquals(ApiClient.MAX_CLIENTS, client.getStats().clients());
+    }
+
+    // upserts two assets against an endpoint answering with the given body
+    private List<AssetResult> upsert(String response) throws Exception {
+        stubFor(post(urlEqualTo("/assets")).willReturn(aResponse()
+                .withStatus(200)
+                .withHeader("Content-Type", "application/json")
+                .withBody(response)));
+        ApiClientCredentials credentials = ApiClientCredentials.builder()
+                .withUrl("http://localhost:" + wireMockRule.port())
+                .withUsername("opennms")
+                .withPassword("secret")
+                .withIgnoreSslCertificateValidation(true)
+                .build();
+        return new ApiClient().sendAssetsAsync(List.of(Map.of("asset_tag", "ap-1"), Map.of("asset_tag", "ap-2")),
+                credentials, "token", "assets", 5000).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void readsAssetResultsWrappedInResult() throws Exception {
+        List<AssetResult> results = upsert("{\"result\":[{\"asset_tag\":\"ap-1\",\"status\":\"inserted\"},"
+                + "{\"asset_tag\":\"ap-2\",\"status\":\"error\",\"status_message\":\"invalid parent\"}]}");
+
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals("ap-1", results.get(0).getAssetTag());
+        Assert.assertFalse(results.get(0).isError());
+        Assert.assertEquals("ap-2", results.get(1).getAssetTag());
+        Assert.assertTrue(results.get(1).isError());
+        Assert.assertEquals("invalid parent", results.get(1).getStatusMessage());
+    }
+
+    @Test
+    public void readsAssetResultsAsArray() throws Exception {
+        List<AssetResult> results = upsert("[{\"asset_tag\":\"ap-1\",\"status\":\"updated\"},"
+                + "{\"asset_tag\":\"ap-2\",\"status\":\"ERROR\",\"status_message\":\"invalid parent\"}]");
+
+        Assert.assertEquals(2, results.size());
+        Assert.assertFalse(results.get(0).isError());
+        Assert.assertTrue(results.get(1).isError());
+    }
+
+    @Test
+    public void readsNoAssetResultWithoutArray() throws Exception {
+        // the endpoint does not report per asset results: the batch is accepted as a whole
+        Assert.assertEquals(List.of(), upsert("{\"result\":{\"status\":\"ok\"}}"));
+        Assert.assertEquals(List.of(), upsert(""));
+    }
+}
@@ -0,0 +1,74 @@
+package org.opennms.plugins.servicenow;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+public class AssetCacheStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysChangeLogOverSnapshot() throws IOException {
+        String file = folder.getRoot().getAbsolutePath() + "/cache.properties";
+        Properties props = new Properties();
+        props.put("a", "1");
+        props.put("b", "2");
+        try (OutputStream out = Files.newOutputStream(Paths.get(file))) {
+            props.store(out, null);
+        }
+
+        AssetCacheStore store = new AssetCacheStore(file);
+        store.load();
+        Assert.assertEquals("1", store.get("a"));
+        store.put("a", "10");
+        store.remove("b");
+        store.put("c", "{\"asset_tag\":\"c\"}");
+        Assert.assertTrue(Files.exists(Paths.get(file + ".log")));
+        // simulate a crash while appending a change
+        Files.write(Paths.get(file + ".log"), "{\"k\":\"d\",".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        store = new AssetCacheStore(file);
+        store.load();
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals("10", store.get("a"));
+        Assert.assertNull(store.get("b"));
+        Assert.assertEquals("{\"asset_tag\":\"c\"}", store.get("c"));
+        // the log is compacted into the snapshot on load
+        Assert.assertFalse(Files.exists(Paths.get(file + ".log")));
+        Properties snapshot = new Properties();
+        try (var in = Files.newInputStream(Paths.get(file))) {
+            snapshot.load(in);
+        }
+        Assert.assertEquals(store.asMap(), snapshot);
+    }
+
+    @Test
+    public void compactsOnceLogOutgrowsMap() {
+        String file = folder.getRoot().getAbsolutePath() + "/cache.properties";
+        AssetCacheStore store = new AssetCacheStore(file);
+        store.load();
+        for (int i = 0; i < 3000; i++) {
+            store.put("k" + (i % 10), String.valueOf(i));
+        }
+        store.close();
+        Assert.assertFalse(Files.exists(Paths.get(file + ".log")));
+
+        store = new AssetCacheStore(file);
+        store.load();
+        Assert.assertEquals(10, store.size());
+        Assert.assertEquals("2999", store.get("k9"));
+        store.clear();
+        Assert.assertFalse(Files.exists(Paths.get(file)));
+    }
+}
@@ -0,0 +1,54 @@
+package org.opennms.plugins.servicenow;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opennms.plugins.servicenow.model.InstallStatus;
+import org.opennms.plugins.servicenow.model.NetworkDevice;
+import org.opennms.plugins.servicenow.model.TipoApparato;
+
+public class AssetDeltaTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private static NetworkDevice networkDevice(String parent, String ipAddress) {
+        NetworkDevice networkDevice = new NetworkDevice();
+        networkDevice.setSysClassName("u_cmdb_ci_apparati_di_rete");
+        networkDevice.setAssetTag("fs-1");
+        networkDevice.setName("switch-1");
+        networkDevice.setIpAddress(ipAddress);
+        networkDevice.setParentalNode(parent);
+        networkDevice.setInstallStatus(InstallStatus.ATTIVO);
+        networkDevice.setTipoApparato(TipoApparato.SWITCH);
+        return networkDevice;
+    }
+
+    @Test
+    public void keepsKeysAndChangedFields() throws Exception {
+        JsonNode previous = mapper.valueToTree(networkDevice("router-1", "10.0.0.1"));
+        JsonNode current = mapper.valueToTree(networkDevice("router-2", "10.0.0.1"));
+
+        Assert.assertEquals(mapper.readTree(
+                "{\"asset_tag\":\"fs-1\",\"sys_class_name\":\"u_cmdb_ci_apparati_di_rete\",\"u_parental_node\":\"router-2\"}"),
+                AssetDelta.of(previous, current));
+    }
+
+    @Test
+    public void clearsDroppedFields() throws Exception {
+        JsonNode previous = mapper.valueToTree(networkDevice("router-1", "10.0.0.1"));
+        NetworkDevice disabled = networkDevice(null, "10.0.0.1");
+        disabled.setInstallStatus(InstallStatus.DISATTIVO);
+
+        Assert.assertEquals(mapper.readTree(
+                "{\"asset_tag\":\"fs-1\",\"sys_class_name\":\"u_cmdb_ci_apparati_di_rete\",\"install_status\":7,\"u_parental_node\":null}"),
+                AssetDelta.of(previous, mapper.valueToTree(disabled)));
+    }
+
+    @Test
+    public void unchangedAssetKeepsKeysOnly() {
+        JsonNode asset = mapper.valueToTree(networkDevice("router-1", "10.0.0.1"));
+
+        Assert.assertEquals(2, AssetDelta.of(asset, asset).size());
+    }
+}
@@ -0,0 +1,66 @@
+package org.opennms.plugins.servicenow;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.plugins.servicenow.model.AccessPoint;
+import org.opennms.plugins.servicenow.model.InstallStatus;
+import org.opennms.plugins.servicenow.model.TipoCollegamento;
+
+import java.io.IOException;
+
+public class AssetDigestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static AccessPoint accessPoint(String parent) {
+        AccessPoint accessPoint = new AccessPoint();
+        accessPoint.setAssetTag("fs-1");
+        accessPoint.setName("ap-1");
+        accessPoint.setIpAddress("10.0.0.1");
+        accessPoint.setParentalNode(parent);
+        accessPoint.setInstallStatus(InstallStatus.ATTIVO);
+        accessPoint.setTipoCollegamento(TipoCollegamento.CAMPUS);
+        return accessPoint;
+    }
+
+    @Test
+    public void digestDependsOnContentOnly() throws IOException {
+        String digest = AssetDigest.of(accessPoint("switch-1"));
+
+        Assert.assertTrue(AssetDigest.isDigest(digest));
+        Assert.assertEquals(AssetDigest.PREFIX.length() + 64, digest.length());
+        Assert.assertEquals(digest, AssetDigest.of(accessPoint("switch-1")));
+        // a round trip through the cached json gives the same digest
+        ObjectMapper mapper = new ObjectMapper();
+        AccessPoint cached = mapper.readValue(mapper.writeValueAsString(accessPoint("switch-1")), AccessPoint.class);
+        Assert.assertEquals(digest, AssetDigest.of(cached));
+        Assert.assertNotEquals(digest, AssetDigest.of(accessPoint("switch-2")));
+        Assert.assertFalse(AssetDigest.isDigest(String.valueOf(accessPoint("switch-1").hashCode())));
+    }
+
+    @Test
+    public void legacyHashesAreMigrated() throws IOException {
+        String prefix = folder.getRoot().getAbsolutePath() + "/cache";
+        AccessPoint sent = accessPoint("switch-1");
+        AssetCacheStore hashes = new AssetCacheStore(prefix + ".properties");
+        hashes.put("fs-1", String.valueOf(sent.hashCode()));
+        hashes.put("fs-2", "12345");
+        hashes.close();
+        AssetCacheStore accessPoints = new AssetCacheStore(prefix + "-AccessPoint.properties");
+        accessPoints.put("fs-1", new ObjectMapper().writeValueAsString(sent));
+        accessPoints.close();
+
+        AssetSender sender = new AssetSender(null, null, null, 0, 0, 0, 1, prefix, "", false, 100, "drop-oldest-non-critical");
+
+        Assert.assertTrue(sender.isUnchanged(accessPoint("switch-1")));
+        Assert.assertFalse(sender.isUnchanged(accessPoint("switch-2")));
+        // without a cached asset there is nothing to disable: the entry is dropped
+        Assert.assertFalse(sender.getCachedAssetTags().contains("fs-2"));
+        Assert.assertTrue(sender.getCachedAssetTags().contains("fs-1"));
+        sender.stop();
+    }
+}
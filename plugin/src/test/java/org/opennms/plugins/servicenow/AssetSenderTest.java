@@ -0,0 +1,281 @@
+package org.opennms.plugins.servicenow;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.plugins.servicenow.client.ApiClientCredentials;
+import org.opennms.plugins.servicenow.client.ApiClientProvider;
+import org.opennms.plugins.servicenow.connection.ConnectionManager;
+import org.opennms.plugins.servicenow.model.AccessPoint;
+import org.opennms.plugins.servicenow.model.AssetResult;
+import org.opennms.plugins.servicenow.model.InstallStatus;
+import org.opennms.plugins.servicenow.model.TipoCollegamento;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AssetSenderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static AccessPoint accessPoint(String assetTag) {
+        AccessPoint accessPoint = new AccessPoint();
+        accessPoint.setAssetTag(assetTag);
+        accessPoint.setName("ap-" + assetTag);
+        accessPoint.setIpAddress("10.0.0.1");
+        accessPoint.setParentalNode("switch-1");
+        accessPoint.setInstallStatus(InstallStatus.ATTIVO);
+        accessPoint.setTipoCollegamento(TipoCollegamento.CAMPUS);
+        return accessPoint;
+    }
+
+    private static AssetResult result(String assetTag, String status, String statusMessage) {
+        AssetResult result = new AssetResult();
+        result.setAssetTag(assetTag);
+        result.setStatus(status);
+        result.setStatusMessage(statusMessage);
+        return result;
+    }
+
+    private AssetSender newSender(ApiClientProvider apiClientProvider, PluginEventForwarder events, int batchSize) {
+        return newSender(apiClientProvider, events, batchSize, false);
+    }
+
+    private AssetSender newSender(ApiClientProvider apiClientProvider, PluginEventForwarder events, int batchSize, boolean deltaEnabled) {
+        return newSender(apiClientProvider, events, 5000L, batchSize, deltaEnabled, 100, "drop-oldest-non-critical");
+    }
+
+    private AssetSender newSender(ApiClientProvider apiClientProvider, PluginEventForwarder events, long timeoutMs, int batchSize,
+                                  boolean deltaEnabled, int capacity, String overflowPolicy) {
+        ConnectionManager connectionManager = mock(ConnectionManager.class);
+        when(connectionManager.getCredentials()).thenReturn(Optional.of(ApiClientCredentials.builder()
+                .withUrl("https://servicenow.example.org")
+                .withUsername("opennms")
+                .withPassword("secret")
+                .withIgnoreSslCertificateValidation(false)
+                .build()));
+        return new AssetSender(connectionManager, apiClientProvider, events, 1, 0L, timeoutMs, batchSize,
+                folder.getRoot().getAbsolutePath() + "/cache", "", deltaEnabled, capacity, overflowPolicy);
+    }
+
+    @Test
+    public void reportsEachAssetOfABatch() {
+        ApiClientProvider apiClientProvider = mock(ApiClientProvider.class);
+        // no result for fs-3
+        when(apiClientProvider.sendAccessPointsAsync(anyList(), any(ApiClientCredentials.class), anyLong()))
+                .thenReturn(CompletableFuture.completedFuture(List.of(
+                        result("fs-1", "inserted", null),
+                        result("fs-2", "error", "invalid parent"))));
+        PluginEventForwarder events = mock(PluginEventForwarder.class);
+        AssetSender sender = newSender(apiClientProvider, events, 3);
+        sender.enqueue(null, accessPoint("fs-1"));
+        sender.enqueue(null, accessPoint("fs-2"));
+        sender.enqueue(null, accessPoint("fs-3"));
+        sender.start();
+        try {
+            verify(events, timeout(5000)).sendAssetFailed("No result returned for asset", "fs-3");
+            verify(events).sendAssetSuccessful("fs-1");
+            verify(events).sendAssetFailed("invalid parent", "fs-2");
+            verify(events, never()).sendAssetSuccessful("fs-2");
+            verify(events, never()).sendAssetSuccessful("fs-3");
+
+            // only the accepted asset is cached: the others are sent again by the next run
+            Assert.assertEquals(Set.of("fs-1"), sender.getAccessPointCache().keySet());
+            Assert.assertTrue(sender.isUnchanged(accessPoint("fs-1")));
+            Assert.assertFalse(sender.isUnchanged(accessPoint("fs-2")));
+            Assert.assertFalse(sender.isUnchanged(accessPoint("fs-3")));
+        } finally {
+            sender.stop();
+        }
+    }
+
+    @Test
+    public void acceptsBatchWithoutAssetResults() {
+        ApiClientProvider apiClientProvider = mock(ApiClientProvider.class);
+        // the endpoint does not report per asset results
+        when(apiClientProvider.sendAccessPointsAsync(anyList(), any(ApiClientCredentials.class), anyLong()))
+                .thenReturn(CompletableFuture.completedFuture(List.of()));
+        PluginEventForwarder events = mock(PluginEventForwarder.class);
+        AssetSender sender = newSender(apiClientProvider, events, 3);
+        sender.enqueue(null, accessPoint("fs-1"));
+        sender.enqueue(null, accessPoint("fs-2"));
+        sender.enqueue(null, accessPoint("fs-3"));
+        sender.start();
+        try {
+            verify(events, timeout(5000)).sendAssetSuccessful("fs-3");
+            verify(events).sendAssetSuccessful("fs-1");
+            verify(events).sendAssetSuccessful("fs-2");
+            verify(events, never()).sendAssetFailed(any(), eq("fs-1"));
+
+            Assert.assertEquals(Set.of("fs-1", "fs-2", "fs-3"), sender.getAccessPointCache().keySet());
+            Assert.assertTrue(sender.isUnchanged(accessPoint("fs-2")));
+        } finally {
+            sender.stop();
+        }
+    }
+
+    @Test
+    public void sendsOnlyChangedFieldsOfCachedAsset() throws Exception {
+        BlockingQueue<JsonNode> payloads = new LinkedBlockingQueue<>();
+        ApiClientProvider apiClientProvider = mock(ApiClientProvider.class);
+        when(apiClientProvider.sendAssetAsync(any(JsonNode.class), any(ApiClientCredentials.class), anyLong())).thenAnswer(invocation -> {
+            payloads.add(invocation.getArgument(0));
+            return CompletableFuture.completedFuture(null);
+        });
+        AssetSender sender = newSender(apiClientProvider, mock(PluginEventForwarder.class), 1, true);
+        ObjectMapper mapper = new ObjectMapper();
+        AccessPoint accessPoint = accessPoint("fs-1");
+        accessPoint.setSysClassName("u_cmdb_ci_access_point");
+        sender.start();
+        try {
+            // never sent: it goes out whole
+            sender.enqueue(null, accessPoint);
+            Assert.assertEquals(mapper.valueToTree(accessPoint), payloads.poll(5, TimeUnit.SECONDS));
+            await().atMost(5, TimeUnit.SECONDS).until(() -> sender.getAccessPointCache().containsKey("fs-1"));
+
+            AccessPoint changed = accessPoint("fs-1");
+            changed.setSysClassName("u_cmdb_ci_access_point");
+            changed.setParentalNode("switch-2");
+            changed.setIpAddress(null);
+            sender.enqueue(null, changed);
+            // the keys, the changed field and the field gone, cleared
+            Assert.assertEquals(mapper.readTree("{\"asset_tag\":\"fs-1\",\"sys_class_name\":\"u_cmdb_ci_access_point\","
+                            + "\"u_parental_node\":\"switch-2\",\"ip_address\":null}"),
+                    payloads.poll(5, TimeUnit.SECONDS));
+
+            // the cache holds the whole asset sent, not the delta
+            await().atMost(5, TimeUnit.SECONDS).until(() -> mapper.valueToTree(changed).equals(mapper.readTree(sender.getAccessPointCache().get("fs-1"))));
+            Assert.assertTrue(sender.isUnchanged(changed));
+        } finally {
+            sender.stop();
+        }
+    }
+
+    @Test
+    public void sendsOnlyChangedFieldsInBatch() throws Exception {
+        BlockingQueue<JsonNode> payloads = new LinkedBlockingQueue<>();
+        ApiClientProvider apiClientProvider = mock(ApiClientProvider.class);
+        when(apiClientProvider.sendAssetsAsync(anyList(), any(ApiClientCredentials.class), anyLong())).thenAnswer(invocation -> {
+            List<JsonNode> batch = invocation.getArgument(0);
+            payloads.addAll(batch);
+            return CompletableFuture.completedFuture(List.of());
+        });
+        ObjectMapper mapper = new ObjectMapper();
+        AssetSender sender = newSender(apiClientProvider, mock(PluginEventForwarder.class), 2, true);
+        sender.enqueue(null, accessPoint("fs-1"));
+        sender.enqueue(null, accessPoint("fs-2"));
+        sender.start();
+        try {
+            Assert.assertEquals(mapper.valueToTree(accessPoint("fs-1")), payloads.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals(mapper.valueToTree(accessPoint("fs-2")), payloads.poll(5, TimeUnit.SECONDS));
+            await().atMost(5, TimeUnit.SECONDS).until(() -> sender.getAccessPointCache().size() == 2);
+        } finally {
+            sender.stop();
+        }
+
+        // a new sender reads the assets sent from the cache
+        AssetSender restarted = newSender(apiClientProvider, mock(PluginEventForwarder.class), 2, true);
+        AccessPoint changed = accessPoint("fs-1");
+        changed.setName("ap-renamed");
+        restarted.enqueue(null, changed);
+        restarted.enqueue(null, accessPoint("fs-3"));
+        restarted.start();
+        try {
+            Assert.assertEquals(mapper.readTree("{\"asset_tag\":\"fs-1\",\"name\":\"ap-renamed\"}"), payloads.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals(mapper.valueToTree(accessPoint("fs-3")), payloads.poll(5, TimeUnit.SECONDS));
+
+            await().atMost(5, TimeUnit.SECONDS).until(() -> restarted.getAccessPointCache().size() == 3);
+            Assert.assertEquals(mapper.valueToTree(changed), mapper.readTree(restarted.getAccessPointCache().get("fs-1")));
+        } finally {
+            restarted.stop();
+        }
+    }
+
+    @Test
+    public void blocksUntilTimeoutThenDropsAsset() {
+        PluginEventForwarder events = mock(PluginEventForwarder.class);
+        // not started: the queue stays full
+        AssetSender sender = newSender(mock(ApiClientProvider.class), events, 200L, 2, false, 2, "block");
+        sender.enqueue(null, accessPoint("fs-1"));
+        sender.enqueue(null, accessPoint("fs-2"));
+
+        long start = System.nanoTime();
+        sender.enqueue(null, accessPoint("fs-3"));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+        verify(events).sendAssetDropped("asset queue full for 200ms", "fs-3");
+
+        // an update of a queued asset takes no room: it neither waits nor drops
+        start = System.nanoTime();
+        sender.enqueue(null, accessPoint("fs-1"));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 200);
+        Assert.assertEquals(2, sender.getQueueStats().size());
+        Assert.assertEquals(1, sender.getQueueStats().dropped());
+    }
+
+    @Test
+    public void dropsOldestAssetOfLowestPriority() throws Exception {
+        BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+        ApiClientProvider apiClientProvider = mock(ApiClientProvider.class);
+        when(apiClientProvider.sendAsync(any(AccessPoint.class), any(ApiClientCredentials.class), anyLong())).thenAnswer(invocation -> {
+            AccessPoint accessPoint = invocation.getArgument(0);
+            sent.add(accessPoint.getAssetTag());
+            return CompletableFuture.completedFuture(null);
+        });
+        PluginEventForwarder events = mock(PluginEventForwarder.class);
+        AssetSender sender = newSender(apiClientProvider, events, 5000L, 1, false, 2, "drop-oldest-non-critical");
+        sender.enqueue(null, accessPoint("fs-1"), AssetPriority.REFRESH);
+        sender.enqueue(null, accessPoint("fs-2"), AssetPriority.REFRESH);
+        sender.enqueue(null, accessPoint("fs-3"), AssetPriority.DISABLE);
+
+        verify(events).sendAssetDropped("asset queue full", "fs-1");
+        verify(events, never()).sendAssetDropped(any(), eq("fs-2"));
+        verify(events, never()).sendAssetDropped(any(), eq("fs-3"));
+        Assert.assertEquals(2, sender.getQueueStats().size());
+        Assert.assertEquals(1, sender.getQueueStats().dropped());
+
+        sender.start();
+        try {
+            // the disabled asset is served first
+            Assert.assertEquals("fs-3", sent.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals("fs-2", sent.poll(5, TimeUnit.SECONDS));
+            Assert.assertNull(sent.poll(200, TimeUnit.MILLISECONDS));
+        } finally {
+            sender.stop();
+        }
+    }
+
+    @Test
+    public void rejectsAssetWhenOnlyHigherPriorityQueued() {
+        PluginEventForwarder events = mock(PluginEventForwarder.class);
+        AssetSender sender = newSender(mock(ApiClientProvider.class), events, 5000L, 2, false, 2, "drop-oldest-non-critical");
+        sender.enqueue(null, accessPoint("fs-1"), AssetPriority.DISABLE);
+        sender.enqueue(null, accessPoint("fs-2"), AssetPriority.PARENT_CHANGE);
+        sender.enqueue(null, accessPoint("fs-3"), AssetPriority.REFRESH);
+
+        verify(events).sendAssetDropped("asset queue full of higher priority assets", "fs-3");
+        verify(events, never()).sendAssetDropped(any(), eq("fs-1"));
+        verify(events, never()).sendAssetDropped(any(), eq("fs-2"));
+        Assert.assertEquals(2, sender.getQueueStats().size());
+        Assert.assertEquals(1, sender.getQueueStats().dropped());
+    }
+}
@@ -0,0 +1,85 @@
+package org.opennms.plugins.servicenow;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class CoalescingQueueTest {
+
+    @Test
+    public void replacesQueuedValueInPlace() throws InterruptedException {
+        CoalescingQueue<String, String> queue = new CoalescingQueue<>();
+        Assert.assertNull(queue.offer("a", "a1"));
+        Assert.assertNull(queue.offer("b", "b1"));
+        Assert.assertEquals("a1", queue.offer("a", "a2"));
+        Assert.assertEquals("a2", queue.offer("a", "a3"));
+        Assert.assertEquals(2, queue.size());
+
+        Assert.assertEquals("a3", queue.poll(0, TimeUnit.MILLISECONDS));
+        Assert.assertEquals("b1", queue.poll(0, TimeUnit.MILLISECONDS));
+        Assert.assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void queuesKeyAgainOnceTaken() throws InterruptedException {
+        CoalescingQueue<String, String> queue = new CoalescingQueue<>();
+        queue.offer("a", "a1");
+        queue.offer("b", "b1");
+        Assert.assertEquals("a1", queue.poll(0, TimeUnit.MILLISECONDS));
+        Assert.assertNull(queue.offer("a", "a2"));
+        Assert.assertEquals("b1", queue.poll(0, TimeUnit.MILLISECONDS));
+        Assert.assertEquals("a2", queue.poll(0, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void pollWaitsForOffer() throws InterruptedException {
+        CoalescingQueue<String, String> queue = new CoalescingQueue<>();
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.offer("a", "a1");
+        });
+        producer.start();
+        Assert.assertEquals("a1", queue.poll(5, TimeUnit.SECONDS));
+        producer.join();
+    }
+
+    @Test
+    public void removesOldestMatchingValue() throws InterruptedException {
+        CoalescingQueue<String, String> queue = new CoalescingQueue<>();
+        queue.offer("a", "a1");
+        queue.offer("b", "b1");
+        queue.offer("c", "c1");
+
+        Assert.assertTrue(queue.containsKey("b"));
+        Assert.assertEquals("b1", queue.removeFirst(v -> !v.startsWith("a")));
+        Assert.assertFalse(queue.containsKey("b"));
+        Assert.assertNull(queue.removeFirst(v -> v.startsWith("x")));
+        Assert.assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void waitsForRoom() throws InterruptedException {
+        CoalescingQueue<String, String> queue = new CoalescingQueue<>();
+        queue.offer("a", "a1");
+        queue.offer("b", "b1");
+        Assert.assertFalse(queue.awaitSizeBelow(2, 10, TimeUnit.MILLISECONDS));
+
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+                queue.poll(0, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        Assert.assertTrue(queue.awaitSizeBelow(2, 5, TimeUnit.SECONDS));
+        consumer.join();
+    }
+}
@@ -2,9 +2,10 @@ package org.opennms.plugins.servicenow;
 
 import kotlin.Pair;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.opennms.integration.api.v1.dao.EdgeDao;
-import org.opennms.integration.api.v1.dao.InterfaceToNodeCache;
 import org.opennms.integration.api.v1.dao.NodeDao;
 import org.opennms.integration.api.v1.model.Node;
 import org.opennms.integration.api.v1.model.TopologyEdge;
@@ -16,6 +17,7 @@ import org.opennms.integration.api.v1.model.immutables.ImmutableNodeCriteria;
 import org.opennms.integration.api.v1.model.immutables.ImmutableTopologyEdge;
 import org.opennms.integration.api.v1.model.immutables.ImmutableTopologyPort;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
@@ -24,14 +26,18 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 public class EdgeServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private final static int startId = 11;
     private final static int endId = 20;
 
@@ -39,6 +45,10 @@ public class EdgeServiceTest {
        return getEdges(getSwitch(),getNodes().stream().filter(node -> !node.getLabel().equals("switch")).toList());
     }
     private static EdgeService getEdgeServiceMock() throws UnknownHostException {
+        return getEdgeServiceMock(null);
+    }
+
+    private static EdgeService getEdgeServiceMock(String cacheFilePrefix) throws UnknownHostException {
         NodeDao nodeDao = mock(NodeDao.class);
         when(nodeDao.getNodes()).thenReturn(getNodes());
         when(nodeDao.getNodeByForeignSourceAndForeignId("EdgeServiceTest", "gateway")).thenReturn(getGateway());
@@ -53,19 +63,15 @@ public class EdgeServiceTest {
         when(edgeDao.getEdges(TopologyProtocol.BRIDGE))
                 .thenReturn(new HashSet<>());
 
-        InterfaceToNodeCache cache = mock(InterfaceToNodeCache.class);
-        when(cache.getFirstNodeId("TEST", InetAddress.getByName("10.10.10.254")))
-                .thenReturn(Optional.of(getGateway().getId()));
-
         EdgeService service = new EdgeService(
                 edgeDao,
                 nodeDao,
-                cache,
                 "10",
                 "provision",
                 "parent",
                 "gateway",
-                "NODES"
+                "NODES",
+                cacheFilePrefix
         );
         service.init();
         return service;
@@ -408,5 +414,122 @@ public class EdgeServiceTest {
         Assert.assertEquals(0, map.size());
     }
 
-}
+    @Test
+    public void testGetEdgeMapFromNodeIndex() throws UnknownHostException {
+        // no node lookups are stubbed: every endpoint must be resolved from the index
+        EdgeService edgeService = new EdgeService(
+                mock(EdgeDao.class),
+                mock(NodeDao.class),
+                "10",
+                "provision",
+                "parent",
+                "gateway",
+                "NODES"
+        );
+        final Map<String, Set<String>> edgeMap = edgeService.populateEdgeMap(getEdges(), new NodeIndex(getNodes()));
+        Assert.assertEquals(11, edgeMap.size());
+        Assert.assertEquals(10, edgeMap.get(getSwitch().getLabel()).size());
+    }
+
+    @Test
+    public void testRunPublishesSnapshot() throws UnknownHostException {
+        EdgeService edgeService = getEdgeServiceMock();
+        Assert.assertEquals(0, edgeService.getSnapshot().getGeneration());
+        Assert.assertEquals("NoParentNodeFound", edgeService.getParent(getNode(11)));
+
+        edgeService.run();
+        TopologySnapshot first = edgeService.getSnapshot();
+        Assert.assertEquals(1, first.getGeneration());
+        Assert.assertEquals(Set.of("10.10.10.254"), edgeService.getGateways());
+        Assert.assertEquals(9, first.getParentByGatewayKeyMap().size());
+        Assert.assertEquals("switch", edgeService.getParent(getNode(11)));
+        // resolved from the parent index, the node is not stubbed in the dao
+        Assert.assertEquals(9 + 2, first.getParentIndex().size());
+        Assert.assertEquals("switch", edgeService.getParent(getNode(12).getId()));
+
+        edgeService.run();
+        Assert.assertEquals(2, edgeService.getSnapshot().getGeneration());
+        // readers still holding the previous snapshot keep a complete view
+        Assert.assertEquals(9, first.getParentByGatewayKeyMap().size());
+        Assert.assertThrows(UnsupportedOperationException.class, () -> first.getParentByGatewayKeyMap().clear());
+        edgeService.destroy();
+    }
 
+    @Test
+    public void testFindGatewayLabel() throws UnknownHostException {
+        EdgeService edgeService = getEdgeServiceMock();
+        NodeIndex nodeIndex = new NodeIndex(getNodes());
+        Assert.assertEquals("gateway", edgeService.findGatewayToGatewayLabel(nodeIndex, "10.10.10.254"));
+        Assert.assertEquals("gateway", edgeService.findGatewayToGatewayLabel(nodeIndex, " 10.10.10.254 "));
+        Assert.assertNull(edgeService.findGatewayToGatewayLabel(nodeIndex, "10.10.10.253"));
+        // host names are not resolved
+        Assert.assertNull(edgeService.findGatewayToGatewayLabel(nodeIndex, "localhost"));
+        Assert.assertNull(edgeService.findGatewayToGatewayLabel(nodeIndex, "10.10.10"));
+        Assert.assertEquals(Map.of("10.10.10.254", "gateway"),
+                edgeService.populateGatewayToGatewayLabelMap(nodeIndex, Set.of("10.10.10.254", "gw.example.org")));
+    }
+
+    @Test
+    public void testParseIpAddress() throws UnknownHostException {
+        Assert.assertEquals(InetAddress.getByName("192.168.1.1"), EdgeService.parseIpAddress("192.168.1.1"));
+        Assert.assertEquals(InetAddress.getByName("fe80::1"), EdgeService.parseIpAddress("fe80::1"));
+        Assert.assertNull(EdgeService.parseIpAddress("256.1.1.1"));
+        Assert.assertNull(EdgeService.parseIpAddress("cafe:not:ip"));
+        Assert.assertNull(EdgeService.parseIpAddress("example.org"));
+        Assert.assertNull(EdgeService.parseIpAddress(""));
+        Assert.assertNull(EdgeService.parseIpAddress(null));
+    }
+
+    @Test
+    public void testWarmStartFromSavedTopology() throws IOException, InterruptedException {
+        String prefix = folder.getRoot().getAbsolutePath() + "/cache";
+        EdgeService edgeService = getEdgeServiceMock(prefix);
+        edgeService.run();
+        edgeService.destroy();
+
+        // no dao is stubbed: the parents come from the saved topology
+        EdgeService restarted = new EdgeService(
+                mock(EdgeDao.class),
+                mock(NodeDao.class),
+                "10",
+                "provision",
+                "parent",
+                "gateway",
+                "NODES",
+                prefix
+        );
+        restarted.init();
+        Assert.assertTrue(restarted.awaitFirstRun(0, TimeUnit.SECONDS));
+        Assert.assertTrue(restarted.getSnapshot().isRestored());
+        Assert.assertEquals(1, restarted.getSnapshot().getGeneration());
+        Assert.assertEquals("switch", restarted.getParent(getNode(11)));
+        Assert.assertEquals(Set.of("10.10.10.254"), restarted.getGateways());
+        restarted.destroy();
+    }
+
+    @Test
+    public void testParentChangesPublished() throws IOException {
+        String prefix = folder.getRoot().getAbsolutePath() + "/cache";
+        new TopologySnapshotStore(prefix).save(TopologySnapshot.restore(
+                5, Set.of("TEST"), Map.of(), Map.of(), Map.of(), Map.of(),
+                new ParentIndex.Builder().put(11, "gateway").put(12, "switch").build()));
+
+        EdgeService edgeService = getEdgeServiceMock(prefix);
+        List<ParentChange> published = new ArrayList<>();
+        edgeService.addParentChangeListener((generation, changes) -> {
+            Assert.assertEquals(6, generation);
+            published.addAll(changes);
+        });
+        edgeService.run();
+        Assert.assertTrue(published.contains(new ParentChange(11, "gateway", "switch")));
+        Assert.assertTrue(published.contains(new ParentChange(13, null, "switch")));
+        Assert.assertTrue(published.stream().noneMatch(change -> change.nodeId() == 12));
+
+        // nothing changed since the last refresh
+        published.clear();
+        edgeService.run();
+        Assert.assertTrue(published.isEmpty());
+        edgeService.destroy();
+    }
+
+}
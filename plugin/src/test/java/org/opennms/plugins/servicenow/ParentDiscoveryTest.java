@@ -0,0 +1,253 @@
+package org.opennms.plugins.servicenow;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks the single pass discovery against the per gateway search it replaces.
+ */
+public class ParentDiscoveryTest {
+
+    private static final int MAX_ITERATION = 10;
+
+    /**
+     * The per gateway breadth first search previously run by {@code EdgeService.runDiscovery}.
+     */
+    private static Map<String, String> legacyDiscovery(Map<String, Set<String>> edgeMap, Map<String, Set<String>> gatewayMap, int maxIteration) {
+        final Map<String, String> map = new HashMap<>();
+        for (String gateway : gatewayMap.keySet()) {
+            if (!edgeMap.containsKey(gateway)) {
+                continue;
+            }
+            Set<String> children = new HashSet<>(gatewayMap.get(gateway));
+            int i = 0;
+            Set<String> parents = new HashSet<>(List.of(gateway));
+            final Set<String> parsed = new HashSet<>();
+            while (!parents.isEmpty() && !children.isEmpty() && i < maxIteration) {
+                final Set<String> downlevel = new HashSet<>();
+                for (String level : parents) {
+                    parsed.add(level);
+                    if (edgeMap.containsKey(level)) {
+                        downlevel.addAll(edgeMap.get(level));
+                    }
+                    Set<String> levelEdges = new HashSet<>(edgeMap.get(level));
+                    levelEdges.retainAll(children);
+                    for (String child : levelEdges) {
+                        map.put(child, level);
+                    }
+                    children.removeAll(levelEdges);
+                }
+                downlevel.removeAll(parsed);
+                parents = downlevel;
+                i++;
+            }
+        }
+        return map;
+    }
+
+    private static void link(Map<String, Set<String>> edgeMap, String a, String b) {
+        if (a.equals(b)) {
+            return;
+        }
+        edgeMap.computeIfAbsent(a, k -> new HashSet<>()).add(b);
+        edgeMap.computeIfAbsent(b, k -> new HashSet<>()).add(a);
+    }
+
+    /**
+     * A random forest of {@code size} nodes, plus {@code extraEdges} random links that close cycles.
+     */
+    private static Map<String, Set<String>> randomTopology(Random random, int size, int extraEdges) {
+        Map<String, Set<String>> edgeMap = new HashMap<>();
+        for (int i = 1; i < size; i++) {
+            // about one node in twenty starts a new tree
+            if (random.nextInt(20) > 0) {
+                link(edgeMap, "n" + random.nextInt(i), "n" + i);
+            }
+        }
+        for (int i = 0; i < extraEdges; i++) {
+            link(edgeMap, "n" + random.nextInt(size), "n" + random.nextInt(size));
+        }
+        return edgeMap;
+    }
+
+    private static Map<String, Set<String>> randomGateways(Random random, int size, int gateways) {
+        Map<String, Set<String>> gatewayMap = new HashMap<>();
+        List<String> gatewayLabels = new ArrayList<>();
+        for (int i = 0; i < gateways; i++) {
+            String gateway = "n" + random.nextInt(size);
+            gatewayLabels.add(gateway);
+            gatewayMap.putIfAbsent(gateway, new HashSet<>());
+        }
+        for (int i = 0; i < size; i++) {
+            // most nodes have a gateway, some of them are not linked at all
+            if (random.nextInt(10) > 0) {
+                gatewayMap.get(gatewayLabels.get(random.nextInt(gatewayLabels.size()))).add("n" + i);
+            }
+        }
+        gatewayMap.get(gatewayLabels.get(0)).add("unlinked");
+        return gatewayMap;
+    }
+
+    private static Map<String, Integer> distances(Map<String, Set<String>> edgeMap, String from) {
+        Map<String, Integer> distances = new HashMap<>();
+        Deque<String> queue = new ArrayDeque<>();
+        distances.put(from, 0);
+        queue.add(from);
+        while (!queue.isEmpty()) {
+            String node = queue.poll();
+            for (String next : edgeMap.getOrDefault(node, Set.of())) {
+                if (!distances.containsKey(next)) {
+                    distances.put(next, distances.get(node) + 1);
+                    queue.add(next);
+                }
+            }
+        }
+        return distances;
+    }
+
+    @Test
+    public void sameParentsAsPerGatewaySearchOnTrees() {
+        for (int seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            int size = 2 + random.nextInt(400);
+            Map<String, Set<String>> edgeMap = randomTopology(random, size, 0);
+            Map<String, Set<String>> gatewayMap = randomGateways(random, size, 1 + random.nextInt(8));
+            // on a tree every child has a single closest neighbor, unless it is its own gateway
+            gatewayMap.forEach((gateway, children) -> children.remove(gateway));
+            Map<String, String> expected = legacyDiscovery(edgeMap, gatewayMap, MAX_ITERATION);
+            Map<String, String> actual = ParentDiscovery.discover(TopologyGraph.fromLabelMap(edgeMap), gatewayMap, MAX_ITERATION);
+            Assert.assertEquals("seed " + seed, expected, actual);
+        }
+    }
+
+    @Test
+    public void sameParentsAsPerGatewaySearchWithCycles() {
+        for (int seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            int size = 2 + random.nextInt(400);
+            Map<String, Set<String>> edgeMap = randomTopology(random, size, random.nextInt(size));
+            Map<String, Set<String>> gatewayMap = randomGateways(random, size, 1 + random.nextInt(8));
+            Map<String, String> expected = legacyDiscovery(edgeMap, gatewayMap, MAX_ITERATION);
+            Map<String, String> actual = ParentDiscovery.discover(TopologyGraph.fromLabelMap(edgeMap), gatewayMap, MAX_ITERATION);
+            Assert.assertEquals("seed " + seed, expected.keySet(), actual.keySet());
+
+            // with cycles a child can have several parents at the same distance from its gateway:
+            // the per gateway search picks one in hash order, any of them is a valid answer
+            for (Map.Entry<String, Set<String>> gateway : gatewayMap.entrySet()) {
+                Map<String, Integer> distances = distances(edgeMap, gateway.getKey());
+                for (String child : gateway.getValue()) {
+                    if (!expected.containsKey(child) || expected.get(child).equals(actual.get(child))) {
+                        continue;
+                    }
+                    Assert.assertTrue("seed " + seed, edgeMap.get(child).contains(actual.get(child)));
+                    Assert.assertEquals("seed " + seed + " child " + child,
+                            distances.get(expected.get(child)), distances.get(actual.get(child)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void stopsAtMaxIteration() {
+        Map<String, Set<String>> edgeMap = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            link(edgeMap, "n" + i, "n" + (i + 1));
+        }
+        Map<String, Set<String>> gatewayMap = Map.of("n0", new HashSet<>(List.of("n1", "n2", "n3", "n4", "n5")));
+        Map<String, String> parents = ParentDiscovery.discover(TopologyGraph.fromLabelMap(edgeMap), gatewayMap, 3);
+        Assert.assertEquals(legacyDiscovery(edgeMap, gatewayMap, 3), parents);
+        Assert.assertEquals(Map.of("n1", "n0", "n2", "n1", "n3", "n2"), parents);
+    }
+
+    @Test
+    public void gatewayWithoutEdges() {
+        Map<String, Set<String>> edgeMap = new HashMap<>();
+        link(edgeMap, "a", "b");
+        Map<String, Set<String>> gatewayMap = Map.of("gw", new HashSet<>(List.of("a", "b")));
+        Assert.assertTrue(ParentDiscovery.discover(TopologyGraph.fromLabelMap(edgeMap), gatewayMap, MAX_ITERATION).isEmpty());
+    }
+
+    /**
+     * Numbers the nodes by their label, so that a node keeps its id when other nodes gain or lose links.
+     */
+    private static TopologyGraph graph(Map<String, Set<String>> edgeMap) {
+        TopologyGraph.Builder builder = new TopologyGraph.Builder();
+        edgeMap.forEach((source, targets) -> targets.forEach(target ->
+                builder.addEdge(Integer.parseInt(source.substring(1)), source, Integer.parseInt(target.substring(1)), target)));
+        return builder.build();
+    }
+
+    @Test
+    public void incrementalSearchMatchesFullSearchOnTrees() {
+        for (int seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            int size = 2 + random.nextInt(400);
+            Map<String, Set<String>> previousEdgeMap = randomTopology(random, size, 0);
+            Map<String, Set<String>> previousGatewayMap = randomGateways(random, size, 1 + random.nextInt(8));
+            previousGatewayMap.forEach((gateway, children) -> children.remove(gateway));
+
+            // move a few leaves, so that the topology stays a forest
+            Map<String, Set<String>> edgeMap = new HashMap<>();
+            previousEdgeMap.forEach((node, neighbors) -> edgeMap.put(node, new HashSet<>(neighbors)));
+            for (int i = 0; i < 3; i++) {
+                String leaf = "n" + random.nextInt(size);
+                if (edgeMap.getOrDefault(leaf, Set.of()).size() != 1) {
+                    continue;
+                }
+                String neighbor = edgeMap.remove(leaf).iterator().next();
+                edgeMap.get(neighbor).remove(leaf);
+                String other = "n" + random.nextInt(size);
+                if (edgeMap.containsKey(other)) {
+                    link(edgeMap, leaf, other);
+                }
+            }
+            edgeMap.values().removeIf(Set::isEmpty);
+            // and move a child to another gateway
+            Map<String, Set<String>> gatewayMap = new HashMap<>();
+            previousGatewayMap.forEach((gateway, children) -> gatewayMap.put(gateway, new HashSet<>(children)));
+            List<String> gateways = new ArrayList<>(gatewayMap.keySet());
+            String child = "n" + random.nextInt(size);
+            gatewayMap.values().forEach(children -> children.remove(child));
+            String gateway = gateways.get(random.nextInt(gateways.size()));
+            if (!gateway.equals(child)) {
+                gatewayMap.get(gateway).add(child);
+            }
+
+            TopologyGraph previousGraph = graph(previousEdgeMap);
+            TopologyGraph graph = graph(edgeMap);
+            Map<String, String> previousParents = ParentDiscovery.discover(previousGraph, previousGatewayMap, MAX_ITERATION);
+            Set<String> affected = ParentDiscovery.affectedGateways(previousGraph, graph, previousGatewayMap, gatewayMap, MAX_ITERATION);
+            Map<String, String> actual = ParentDiscovery.rediscover(graph, previousParents, previousGatewayMap, gatewayMap, affected, MAX_ITERATION);
+            Assert.assertEquals("seed " + seed, ParentDiscovery.discover(graph, gatewayMap, MAX_ITERATION), actual);
+        }
+    }
+
+    @Test
+    public void onlyGatewaysNearChangesAreAffected() {
+        Map<String, Set<String>> previousEdgeMap = new HashMap<>();
+        for (int i = 0; i < 8; i++) {
+            link(previousEdgeMap, "n" + i, "n" + (i + 1));
+        }
+        Map<String, Set<String>> edgeMap = new HashMap<>();
+        previousEdgeMap.forEach((node, neighbors) -> edgeMap.put(node, new HashSet<>(neighbors)));
+        link(edgeMap, "n8", "n9");
+        Map<String, Set<String>> gatewayMap = Map.of(
+                "n0", Set.of("n1", "n2"),
+                "n6", Set.of("n5", "n7"));
+        Set<String> affected = ParentDiscovery.affectedGateways(graph(previousEdgeMap), graph(edgeMap), gatewayMap, gatewayMap, 3);
+        Assert.assertEquals(Set.of("n6"), affected);
+        Assert.assertTrue(ParentDiscovery.affectedGateways(graph(edgeMap), graph(edgeMap), gatewayMap, gatewayMap, 3).isEmpty());
+        Assert.assertEquals(Set.of("n0"), ParentDiscovery.affectedGateways(graph(edgeMap), graph(edgeMap), gatewayMap,
+                Map.of("n0", Set.of("n1"), "n6", Set.of("n5", "n7")), 3));
+    }
+}
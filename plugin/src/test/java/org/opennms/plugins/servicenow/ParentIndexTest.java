@@ -0,0 +1,68 @@
+package org.opennms.plugins.servicenow;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class ParentIndexTest {
+
+    @Test
+    public void getsWhatWasPut() {
+        Random random = new Random(0);
+        Map<Integer, String> expected = new HashMap<>();
+        ParentIndex.Builder builder = new ParentIndex.Builder();
+        for (int i = 0; i < 10000; i++) {
+            int nodeId = 1 + random.nextInt(20000);
+            String parent = "parent" + random.nextInt(100);
+            expected.put(nodeId, parent);
+            builder.put(nodeId, parent);
+        }
+        ParentIndex index = builder.build();
+        Assert.assertEquals(expected.size(), index.size());
+        for (int nodeId = -1; nodeId <= 20001; nodeId++) {
+            Assert.assertEquals("node " + nodeId, expected.get(nodeId), index.get(nodeId));
+        }
+    }
+
+    @Test
+    public void lastPutWins() {
+        ParentIndex index = new ParentIndex.Builder()
+                .put(7, "first")
+                .put(7, "second")
+                .build();
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals("second", index.get(7));
+    }
+
+    @Test
+    public void emptyIndex() {
+        Assert.assertEquals(0, ParentIndex.EMPTY.size());
+        Assert.assertNull(ParentIndex.EMPTY.get(1));
+        Assert.assertNull(ParentIndex.EMPTY.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNodeIdZero() {
+        new ParentIndex.Builder().put(0, "parent");
+    }
+
+    @Test
+    public void changesFrom() {
+        ParentIndex previous = new ParentIndex.Builder()
+                .put(1, "a")
+                .put(2, "b")
+                .put(3, "c")
+                .build();
+        ParentIndex current = new ParentIndex.Builder()
+                .put(4, "d")
+                .put(2, "b")
+                .put(1, "z")
+                .build();
+        Assert.assertEquals(List.of(new ParentChange(1, "a", "z"), new ParentChange(4, null, "d")), current.changesFrom(previous));
+        Assert.assertTrue(current.changesFrom(current).isEmpty());
+    }
+}
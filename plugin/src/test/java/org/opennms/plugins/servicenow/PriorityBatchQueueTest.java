@@ -0,0 +1,111 @@
+package org.opennms.plugins.servicenow;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class PriorityBatchQueueTest {
+
+    private static PriorityBatchQueue<String> newQueue() {
+        // the kind of an element is its first letter
+        return new PriorityBatchQueue<>(3, e -> e.charAt(0));
+    }
+
+    @Test
+    public void takesHighestPriorityFirst() throws InterruptedException {
+        PriorityBatchQueue<String> queue = newQueue();
+        queue.offer(2, "a1");
+        queue.offer(1, "a2");
+        queue.offer(0, "a3");
+        queue.offer(1, "a4");
+        Assert.assertEquals(4, queue.size());
+
+        Assert.assertEquals(List.of("a3"), queue.take(10));
+        Assert.assertEquals(List.of("a2", "a4"), queue.take(10));
+        Assert.assertEquals(List.of("a1"), queue.take(10));
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void batchesOneKindInTurn() throws InterruptedException {
+        PriorityBatchQueue<String> queue = newQueue();
+        queue.offer(2, "a1");
+        queue.offer(2, "n1");
+        queue.offer(2, "a2");
+        queue.offer(2, "a3");
+        queue.offer(2, "n2");
+
+        Assert.assertEquals(List.of("a1", "a2"), queue.take(2));
+        Assert.assertEquals(List.of("n1", "n2"), queue.take(2));
+        Assert.assertEquals(List.of("a3"), queue.take(2));
+    }
+
+    @Test
+    public void takeWaitsForOffer() throws InterruptedException {
+        PriorityBatchQueue<String> queue = newQueue();
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.offer(1, "n1");
+        });
+        producer.start();
+        long start = System.nanoTime();
+        Assert.assertEquals(List.of("n1"), queue.take(10));
+        // woken by the offer, not by a poll timeout
+        Assert.assertTrue(System.nanoTime() - start < 900_000_000L);
+        producer.join();
+    }
+
+    @Test
+    public void removesOldestOfLastLevel() {
+        PriorityBatchQueue<String> queue = newQueue();
+        Assert.assertEquals(-1, queue.lastLevel());
+        queue.offer(0, "a1");
+        queue.offer(1, "n1");
+        queue.offer(1, "a2");
+        Assert.assertEquals(1, queue.lastLevel());
+
+        Assert.assertEquals("n1", queue.removeOldest(queue.lastLevel()));
+        Assert.assertEquals("a2", queue.removeOldest(1));
+        Assert.assertNull(queue.removeOldest(1));
+        Assert.assertEquals(0, queue.lastLevel());
+        Assert.assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void mergesByKeyAtHighestPriority() throws InterruptedException {
+        // the key of an element is its first two letters
+        PriorityBatchQueue<String> queue = new PriorityBatchQueue<>(3, e -> e.charAt(0), e -> e.substring(0, 2));
+        queue.offer(2, "a1-refresh");
+        queue.offer(2, "a2-refresh");
+        queue.offer(0, "a3-disable");
+        Assert.assertTrue(queue.containsKey("a1"));
+
+        // a newer payload keeps the place of the higher priority one
+        Assert.assertEquals("a3-disable", queue.offer(2, "a3-refresh"));
+        // a higher priority payload moves up
+        Assert.assertEquals("a1-refresh", queue.offer(0, "a1-disable"));
+        Assert.assertEquals(3, queue.size());
+
+        Assert.assertEquals(List.of("a3-refresh", "a1-disable"), queue.take(10));
+        Assert.assertEquals(2, queue.lastLevel());
+        Assert.assertEquals(List.of("a2-refresh"), queue.take(10));
+        Assert.assertEquals(0, queue.size());
+        Assert.assertFalse(queue.containsKey("a1"));
+        Assert.assertNull(queue.offer(1, "a1-parent"));
+    }
+
+    @Test
+    public void parsesPriorityOrder() {
+        Assert.assertEquals(List.of(AssetPriority.DISABLE, AssetPriority.PARENT_CHANGE, AssetPriority.REFRESH),
+                AssetPriority.parseOrder("DISABLE,PARENT_CHANGE,REFRESH"));
+        Assert.assertEquals(List.of(AssetPriority.PARENT_CHANGE, AssetPriority.DISABLE, AssetPriority.REFRESH),
+                AssetPriority.parseOrder(" parent_change , "));
+        Assert.assertEquals(List.of(AssetPriority.DISABLE, AssetPriority.PARENT_CHANGE, AssetPriority.REFRESH),
+                AssetPriority.parseOrder(""));
+    }
+}
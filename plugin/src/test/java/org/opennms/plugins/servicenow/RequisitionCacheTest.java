@@ -0,0 +1,79 @@
+package org.opennms.plugins.servicenow;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opennms.integration.api.v1.config.requisition.Requisition;
+import org.opennms.integration.api.v1.config.requisition.RequisitionInterface;
+import org.opennms.integration.api.v1.config.requisition.RequisitionNode;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RequisitionCacheTest {
+
+    private static RequisitionNode node(String fid, String ip) throws UnknownHostException {
+        RequisitionNode node = mock(RequisitionNode.class);
+        when(node.getForeignId()).thenReturn(fid);
+        if (ip == null) {
+            when(node.getInterfaces()).thenReturn(List.of());
+        } else {
+            RequisitionInterface ri = mock(RequisitionInterface.class);
+            when(ri.getIpAddress()).thenReturn(InetAddress.getByName(ip));
+            when(node.getInterfaces()).thenReturn(List.of(ri));
+        }
+        return node;
+    }
+
+    private static Requisition requisition(Date generatedAt, List<RequisitionNode> nodes) {
+        Requisition req = mock(Requisition.class);
+        when(req.getForeignSource()).thenReturn("fs");
+        when(req.getGeneratedAt()).thenReturn(generatedAt);
+        when(req.getNodes()).thenReturn(nodes);
+        return req;
+    }
+
+    @Test
+    public void projectsOnlyNeededForeignIds() throws UnknownHostException {
+        RequisitionNode unneeded = node("3", "10.0.0.3");
+        Requisition req = requisition(new Date(1000), List.of(node("1", "10.0.0.1"), node("2", null), unneeded));
+
+        Map<String, String> projection = new RequisitionCache().project(req, Set.of("1", "2"));
+
+        Assert.assertEquals(Map.of("1", "10.0.0.1"), projection);
+        verify(unneeded, never()).getInterfaces();
+    }
+
+    @Test
+    public void reusesProjectionOfUnchangedRequisition() throws UnknownHostException {
+        RequisitionCache cache = new RequisitionCache();
+        Requisition req = requisition(new Date(1000), List.of(node("1", "10.0.0.1"), node("2", "10.0.0.2")));
+
+        Assert.assertEquals(Map.of("1", "10.0.0.1", "2", "10.0.0.2"), cache.project(req, Set.of("1", "2")));
+        // a subset of the projected foreign ids does not walk the nodes again
+        Assert.assertEquals(Map.of("1", "10.0.0.1", "2", "10.0.0.2"), cache.project(req, Set.of("1")));
+        verify(req, times(1)).getNodes();
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void reprojectsChangedRequisition() throws UnknownHostException {
+        RequisitionCache cache = new RequisitionCache();
+        cache.project(requisition(new Date(1000), List.of(node("1", "10.0.0.1"))), Set.of("1"));
+
+        Requisition changed = requisition(new Date(2000), List.of(node("1", "10.0.0.9")));
+        Assert.assertEquals(Map.of("1", "10.0.0.9"), cache.project(changed, Set.of("1")));
+
+        cache.retain(Set.of("other"));
+        Assert.assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,107 @@
+package org.opennms.plugins.servicenow;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opennms.plugins.servicenow.client.ApiException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetryingSendTest {
+
+    @Test
+    public void retriesUntilSent() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        CompletableFuture<String> result = RetryingSend.send(
+                () -> attempts.incrementAndGet() < 3
+                        ? CompletableFuture.failedFuture(new ApiException("Unexpected code: ", new RuntimeException(), 500, ""))
+                        : CompletableFuture.completedFuture("sent"),
+                (retry, e) -> Assert.assertEquals(failures.incrementAndGet(), (int) retry),
+                3,
+                10);
+        Assert.assertEquals("sent", result.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, attempts.get());
+        Assert.assertEquals(2, failures.get());
+    }
+
+    @Test
+    public void stopsAfterMaxRetry() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        CompletableFuture<Void> result = RetryingSend.send(
+                () -> {
+                    attempts.incrementAndGet();
+                    return CompletableFuture.failedFuture(new ApiException("Unexpected code: ", new RuntimeException(), 503, ""));
+                },
+                (retry, e) -> failures.incrementAndGet(),
+                3,
+                10);
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException | TimeoutException e) {
+            Assert.assertEquals(503, ((ApiException) e.getCause()).getErrCode());
+        }
+        Assert.assertEquals(3, attempts.get());
+        // the last failure fails the send instead of being retried
+        Assert.assertEquals(2, failures.get());
+    }
+
+    @Test
+    public void doesNotRetryOtherFailures() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<Void> result = RetryingSend.send(
+                () -> {
+                    attempts.incrementAndGet();
+                    return CompletableFuture.failedFuture(new IllegalStateException("no connection"));
+                },
+                (retry, e) -> Assert.fail(),
+                3,
+                10);
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException | TimeoutException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void doesNotRetryRejection() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<Void> result = RetryingSend.send(
+                () -> {
+                    attempts.incrementAndGet();
+                    return CompletableFuture.failedFuture(new ApiException("Unexpected code: ", new RuntimeException(), 400, "invalid field"));
+                },
+                (retry, e) -> Assert.fail(),
+                3,
+                10);
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException | TimeoutException e) {
+            Assert.assertTrue(((ApiException) e.getCause()).isRejected());
+        }
+        Assert.assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void timeoutCancelsAttemptInFlight() throws InterruptedException {
+        CompletableFuture<Void> attempt = new CompletableFuture<>();
+        CompletableFuture<Void> result = RetryingSend.send(() -> attempt, (retry, e) -> Assert.fail(), 3, 10);
+        result.orTimeout(100, TimeUnit.MILLISECONDS);
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException | TimeoutException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        Assert.assertTrue(attempt.isCancelled());
+    }
+}
@@ -0,0 +1,165 @@
+package org.opennms.plugins.servicenow;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opennms.plugins.servicenow.client.ApiClientCredentials;
+import org.opennms.plugins.servicenow.client.ApiException;
+import org.opennms.plugins.servicenow.client.TokenHolder;
+import org.opennms.plugins.servicenow.model.TokenResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TokenHolderTest {
+
+    private static final ApiClientCredentials CREDENTIALS = ApiClientCredentials.builder()
+            .withUrl("https://servicenow.example.org")
+            .withUsername("opennms")
+            .withPassword("secret")
+            .build();
+
+    private static TokenResponse tokenResponse(String accessToken, int expiresIn) {
+        TokenResponse response = new TokenResponse();
+        response.setAccessToken(accessToken);
+        response.setExpires_in(expiresIn);
+        return response;
+    }
+
+    @Test
+    public void concurrentCallersShareOneRefresh() throws Exception {
+        AtomicInteger fetches = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        TokenHolder holder = new TokenHolder(c -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return tokenResponse("token-" + fetches.incrementAndGet(), 3600);
+        });
+        try {
+            List<CompletableFuture<TokenHolder.Token>> callers = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                callers.add(holder.getAsync(CREDENTIALS));
+            }
+            release.countDown();
+            for (CompletableFuture<TokenHolder.Token> caller : callers) {
+                Assert.assertEquals("token-1", caller.get(5, TimeUnit.SECONDS).response().getAccessToken());
+            }
+            Assert.assertEquals(1, fetches.get());
+            Assert.assertEquals("token-1", holder.get(CREDENTIALS).response().getAccessToken());
+            Assert.assertEquals(1, fetches.get());
+        } finally {
+            holder.close();
+        }
+    }
+
+    @Test
+    public void rejectedTokenIsReplacedOnce() throws Exception {
+        AtomicInteger fetches = new AtomicInteger();
+        TokenHolder holder = new TokenHolder(c -> tokenResponse("token-" + fetches.incrementAndGet(), 3600));
+        try {
+            TokenHolder.Token rejected = holder.get(CREDENTIALS);
+            TokenHolder.Token fresh = holder.invalidate(CREDENTIALS, rejected).get(5, TimeUnit.SECONDS);
+            Assert.assertEquals("token-2", fresh.response().getAccessToken());
+            // a second caller that was rejected with the same old token gets the new one without a refresh
+            Assert.assertSame(fresh, holder.invalidate(CREDENTIALS, rejected).get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(2, fetches.get());
+        } finally {
+            holder.close();
+        }
+    }
+
+    @Test
+    public void newCredentialsFetchNewToken() throws Exception {
+        AtomicInteger fetches = new AtomicInteger();
+        TokenHolder holder = new TokenHolder(c -> tokenResponse(c.username + "-" + fetches.incrementAndGet(), 3600));
+        try {
+            holder.get(CREDENTIALS);
+            ApiClientCredentials other = ApiClientCredentials.builder(CREDENTIALS).withUsername("other").build();
+            Assert.assertEquals("other-2", holder.get(other).response().getAccessToken());
+            Assert.assertEquals(other, holder.getToken().credentials());
+        } finally {
+            holder.close();
+        }
+    }
+
+    @Test
+    public void refreshForOtherCredentialsIsNotJoined() throws Exception {
+        AtomicInteger fetches = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        TokenHolder holder = new TokenHolder(c -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return tokenResponse(c.username + "-" + fetches.incrementAndGet(), 3600);
+        });
+        try {
+            CompletableFuture<TokenHolder.Token> first = holder.getAsync(CREDENTIALS);
+            ApiClientCredentials other = ApiClientCredentials.builder(CREDENTIALS).withUsername("other").build();
+            CompletableFuture<TokenHolder.Token> second = holder.getAsync(other);
+            Assert.assertNotSame(first, second);
+            release.countDown();
+            Assert.assertEquals(CREDENTIALS, first.get(5, TimeUnit.SECONDS).credentials());
+            Assert.assertEquals("other-2", second.get(5, TimeUnit.SECONDS).response().getAccessToken());
+            // the token kept is the one of the latest credentials
+            Assert.assertEquals(other, holder.getToken().credentials());
+            Assert.assertEquals("other-2", holder.get(other).response().getAccessToken());
+            Assert.assertEquals(2, fetches.get());
+        } finally {
+            holder.close();
+        }
+    }
+
+    @Test
+    public void shortLivedTokenIsUsable() throws Exception {
+        AtomicInteger fetches = new AtomicInteger();
+        // the lifetime is shorter than the expiry margin
+        TokenHolder holder = new TokenHolder(c -> tokenResponse("token-" + fetches.incrementAndGet(), 2));
+        try {
+            TokenHolder.Token first = holder.get(CREDENTIALS);
+            Assert.assertSame(first, holder.get(CREDENTIALS));
+            Assert.assertEquals(1, fetches.get());
+        } finally {
+            holder.close();
+        }
+    }
+
+    @Test
+    public void expiringTokenIsRefreshedInBackground() throws Exception {
+        AtomicInteger fetches = new AtomicInteger();
+        // a 10s token is refreshed ahead of expiry, at 90% of its lifetime
+        TokenHolder holder = new TokenHolder(c -> tokenResponse("token-" + fetches.incrementAndGet(), 10));
+        try {
+            TokenHolder.Token first = holder.get(CREDENTIALS);
+            long deadline = System.currentTimeMillis() + 15000;
+            while (holder.getToken() == first && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            Assert.assertEquals("token-2", holder.getToken().response().getAccessToken());
+        } finally {
+            holder.close();
+        }
+    }
+
+    @Test
+    public void failedRefreshIsReported() throws InterruptedException {
+        TokenHolder holder = new TokenHolder(c -> {
+            throw new ApiException("Unexpected code: ", new RuntimeException(), 401, "");
+        });
+        try {
+            holder.get(CREDENTIALS);
+            Assert.fail();
+        } catch (ApiException e) {
+            Assert.assertEquals(401, e.getErrCode());
+        } finally {
+            holder.close();
+        }
+    }
+}
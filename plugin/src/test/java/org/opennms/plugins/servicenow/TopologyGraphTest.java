@@ -0,0 +1,95 @@
+package org.opennms.plugins.servicenow;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TopologyGraphTest {
+
+    @Test
+    public void buildsSortedDedupedAdjacency() {
+        TopologyGraph graph = new TopologyGraph.Builder()
+                .addEdge(30, "c", 10, "a")
+                .addEdge(10, "a", 20, "b")
+                .addEdge(20, "b", 10, "a")
+                .addEdge(10, "a", 30, "c")
+                .addEdge(20, "b", 20, "b")
+                .build();
+
+        Assert.assertEquals(3, graph.vertexCount());
+        Assert.assertEquals(2, graph.edgeCount());
+        int a = graph.vertexOf(10);
+        Assert.assertEquals(0, a);
+        Assert.assertEquals(a, graph.vertexOf("a"));
+        Assert.assertEquals(-1, graph.vertexOf(40));
+        Assert.assertEquals(-1, graph.vertexOf("d"));
+        Assert.assertEquals(2, graph.degree(a));
+        Assert.assertEquals("b", graph.label(graph.neighbor(a, 0)));
+        Assert.assertEquals("c", graph.label(graph.neighbor(a, 1)));
+        Assert.assertEquals(1, graph.degree(graph.vertexOf("b")));
+        Assert.assertEquals(Set.of("b", "c"), graph.getNeighborLabels("a"));
+        Assert.assertEquals(Set.of(), graph.getNeighborLabels("d"));
+    }
+
+    @Test
+    public void roundTripsLabelMap() {
+        Map<String, Set<String>> adjacency = Map.of(
+                "gw1", new HashSet<>(List.of("sw")),
+                "sw", new HashSet<>(List.of("gw1", "h1", "h2")),
+                "h1", new HashSet<>(List.of("sw")),
+                "h2", new HashSet<>(List.of("sw")));
+        TopologyGraph graph = TopologyGraph.fromLabelMap(adjacency);
+        Assert.assertEquals(4, graph.vertexCount());
+        Assert.assertEquals(3, graph.edgeCount());
+        Assert.assertEquals(adjacency, graph.asLabelMap());
+    }
+
+    @Test
+    public void emptyGraph() {
+        Assert.assertEquals(0, TopologyGraph.EMPTY.vertexCount());
+        Assert.assertEquals(0, TopologyGraph.EMPTY.edgeCount());
+        Assert.assertTrue(TopologyGraph.EMPTY.asLabelMap().isEmpty());
+    }
+
+    @Test
+    public void changedNodeIds() {
+        TopologyGraph previous = new TopologyGraph.Builder()
+                .addEdge(1, "a", 2, "b")
+                .addEdge(2, "b", 3, "c")
+                .addEdge(4, "d", 5, "e")
+                .build();
+        TopologyGraph graph = new TopologyGraph.Builder()
+                .addEdge(1, "a", 2, "b")
+                .addEdge(2, "b", 3, "c")
+                .addEdge(3, "c", 6, "f")
+                .addEdge(4, "renamed", 7, "g")
+                .build();
+
+        Assert.assertArrayEquals(new int[] {3, 4, 5, 6, 7}, graph.changedNodeIds(previous));
+        Assert.assertArrayEquals(new int[] {3, 4, 5, 6, 7}, previous.changedNodeIds(graph));
+        Assert.assertArrayEquals(new int[0], graph.changedNodeIds(graph));
+        Assert.assertArrayEquals(new int[] {1, 2, 3, 4, 6, 7}, graph.changedNodeIds(TopologyGraph.EMPTY));
+    }
+
+    @Test
+    public void reachedFrom() {
+        TopologyGraph graph = new TopologyGraph.Builder()
+                .addEdge(1, "a", 2, "b")
+                .addEdge(2, "b", 3, "c")
+                .addEdge(3, "c", 4, "d")
+                .addEdge(5, "e", 6, "f")
+                .build();
+
+        BitSet reached = graph.reachedFrom(new int[] {1, 99}, 2);
+        Assert.assertEquals(3, reached.cardinality());
+        Assert.assertTrue(reached.get(graph.vertexOf(3)));
+        Assert.assertFalse(reached.get(graph.vertexOf(4)));
+        Assert.assertEquals(1, graph.reachedFrom(new int[] {5}, 0).cardinality());
+        Assert.assertEquals(2, graph.reachedFrom(new int[] {5}, 10).cardinality());
+    }
+}
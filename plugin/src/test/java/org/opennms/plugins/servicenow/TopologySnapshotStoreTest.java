@@ -0,0 +1,73 @@
+package org.opennms.plugins.servicenow;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.integration.api.v1.model.TopologyProtocol;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+public class TopologySnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static TopologySnapshot snapshot() {
+        return TopologySnapshot.restore(
+                7,
+                Set.of("Default", "TEST"),
+                Map.of("10.10.10.254", Set.of("h1", "h2")),
+                Map.of("10.10.10.254", "gw1"),
+                Map.of("gw1", Set.of("h1", "h2")),
+                Map.of("h1", "sw", "h2", "gw1"),
+                new ParentIndex.Builder().put(11, "sw").put(12, "gw1").put(13, "NoParentNodeFound").build());
+    }
+
+    @Test
+    public void savesAndLoads() throws IOException {
+        String prefix = folder.getRoot().getAbsolutePath() + "/cache";
+        TopologySnapshotStore store = new TopologySnapshotStore(prefix);
+        Assert.assertTrue(store.load().isEmpty());
+
+        TopologySnapshot saved = snapshot();
+        store.save(saved);
+        Assert.assertTrue(Files.exists(Paths.get(prefix + "-topology.bin")));
+        Assert.assertFalse(Files.exists(Paths.get(prefix + "-topology.bin.tmp")));
+
+        TopologySnapshot loaded = new TopologySnapshotStore(prefix).load().orElseThrow();
+        Assert.assertTrue(loaded.isRestored());
+        Assert.assertEquals(7, loaded.getGeneration());
+        Assert.assertEquals(saved.getLocations(), loaded.getLocations());
+        Assert.assertEquals(saved.getGatewayToChildMap(), loaded.getGatewayToChildMap());
+        Assert.assertEquals(saved.getGatewayToGatewayLabelMap(), loaded.getGatewayToGatewayLabelMap());
+        Assert.assertEquals(saved.getGatewayMap(), loaded.getGatewayMap());
+        Assert.assertEquals(saved.getParentByGatewayKeyMap(), loaded.getParentByGatewayKeyMap());
+        Assert.assertEquals(3, loaded.getParentIndex().size());
+        Assert.assertEquals("sw", loaded.getParentIndex().get(11));
+        Assert.assertEquals("gw1", loaded.getParentIndex().get(12));
+        Assert.assertEquals("NoParentNodeFound", loaded.getParentIndex().get(13));
+        Assert.assertTrue(loaded.getNodes().isEmpty());
+        Assert.assertEquals(0, loaded.getGraph(TopologyProtocol.LLDP).vertexCount());
+    }
+
+    @Test
+    public void ignoresUnreadableFile() throws IOException {
+        String prefix = folder.getRoot().getAbsolutePath() + "/cache";
+        Files.write(Paths.get(prefix + "-topology.bin"), "not a topology".getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(new TopologySnapshotStore(prefix).load().isEmpty());
+
+        TopologySnapshotStore store = new TopologySnapshotStore(prefix);
+        store.save(snapshot());
+        byte[] bytes = Files.readAllBytes(Paths.get(prefix + "-topology.bin"));
+        // truncated by a crash of the file system
+        Files.write(Paths.get(prefix + "-topology.bin"), Arrays.copyOf(bytes, bytes.length / 2));
+        Assert.assertTrue(new TopologySnapshotStore(prefix).load().isEmpty());
+    }
+}